@@ -6,10 +6,14 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 
 
 /**
@@ -26,6 +30,8 @@ public class ShopController {
 
     @Autowired
     public IShopService shopService;
+    @Autowired
+    private IdBloomFilter idBloomFilter;
 
     /**
      * 根据id查询商铺信息
@@ -45,9 +51,11 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
+        Result result = shopService.saveShop(shop);
+        // 写入布隆过滤器
+        idBloomFilter.add(RedisConstants.BLOOM_SHOP_KEY, shop.getId());
         // 返回店铺id
-        return Result.ok(shop.getId());
+        return result;
     }
 
     /**
@@ -77,6 +85,40 @@ public class ShopController {
         return shopService.queryShopByType(typeId,current,x,y);
     }
 
+    /**
+     * 按距离滚动查询附近商铺，翻页时传入上一页返回的游标
+     * @param typeId 商铺类型
+     * @param lastDistance 上一页最后一个商铺的距离
+     * @param lastId 上一页最后一个商铺的id
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result scrollShopByType(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "lastDistance", required = false) Double lastDistance,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return shopService.scrollShopByType(typeId, x, y, lastDistance, lastId);
+    }
+
+    /**
+     * 查询多个类型中距离最近的商铺
+     * @param typeIds 商铺类型列表
+     * @param count 返回的商铺数量
+     * @return 按距离排序的商铺列表
+     */
+    @GetMapping("/nearby")
+    public Result queryNearbyShops(
+            @RequestParam("typeIds") List<Long> typeIds,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "count", required = false) Integer count
+    ) {
+        return shopService.queryNearbyShops(typeIds, x, y, count);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
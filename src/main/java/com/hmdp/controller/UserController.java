@@ -12,6 +12,8 @@ import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import jakarta.servlet.http.HttpSession;
@@ -44,6 +46,9 @@ public class UserController {
     @Autowired
     private IBlogService blogService;
 
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+
     /**
      * 发送手机验证码
      */
@@ -94,6 +99,10 @@ public class UserController {
 
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId){
+        // 布隆过滤器拦截不存在的用户
+        if (!idBloomFilter.mightContain(RedisConstants.BLOOM_USER_KEY, userId)) {
+            return Result.ok();
+        }
         // 查询详情
         User user = userService.getById(userId);
         if (user == null) {
@@ -0,0 +1,12 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class NearbyScrollResult {
+    private List<?> list;
+    private Double lastDistance;
+    private Long lastId;
+}
@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,13 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 从数据库读取关注的用户发布的博文，用于收件箱被裁剪或过期后的翻页
+     * 只返回关注之后发布的博文，与推送到收件箱的博文一致
+     * @param userId 当前用户id
+     * @param max 最大发布时间（包含）
+     * @param count 最多返回的数量
+     * @return 博文id和发布时间，按发布时间、id倒序
+     */
+    List<Blog> queryFollowFeed(@Param("userId") Long userId, @Param("max") LocalDateTime max, @Param("count") int count);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -21,6 +23,13 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryById(Long id);
 
+    /**
+     * 新增商铺信息
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    Result saveShop(Shop shop);
+
     /**
      * 更新商铺信息
      * @param shop 商铺数据
@@ -29,4 +38,25 @@ public interface IShopService extends IService<Shop> {
     Result updateShop(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 按距离滚动查询附近商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param lastDistance 上一页最后一个商铺的距离，第一页为空
+     * @param lastId 上一页最后一个商铺的id，第一页为空
+     * @return 商铺列表和下一页的游标
+     */
+    Result scrollShopByType(Integer typeId, Double x, Double y, Double lastDistance, Long lastId);
+
+    /**
+     * 查询多个类型中距离最近的商铺，附近商铺不足时自动扩大查询半径
+     * @param typeIds 商铺类型列表
+     * @param x 经度
+     * @param y 纬度
+     * @param count 返回的商铺数量
+     * @return 按距离排序的商铺列表
+     */
+    Result queryNearbyShops(List<Long> typeIds, Double x, Double y, Integer count);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -22,4 +24,10 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result setKillVoucher(Long voucherId);
     //Result createVoucherOrder(Long voucherId);
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建秒杀订单
+     * @param voucherOrders 一批订单消息
+     */
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
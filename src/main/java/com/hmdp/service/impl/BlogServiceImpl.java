@@ -2,31 +2,46 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedFanoutWorker;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -46,9 +61,33 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+    @Autowired
+    private FeedFanoutWorker feedFanoutWorker;
+    @Autowired
+    private CacheClient cacheClient;
+    @Autowired
+    private BlogHotRanking blogHotRanking;
+
+    //关注流每页的博文数量
+    private static final int FEED_PAGE_SIZE = 2;
+    //收件箱多少天未读取后过期
+    @Value("${hmdp.feed.inbox.ttl-days:30}")
+    private long inboxTtlDays;
+    //收件箱最大长度，达到该长度说明更早的博文已被裁剪
+    @Value("${hmdp.feed.inbox.max-length:1000}")
+    private long inboxMaxLength;
+    //大V发件箱最大长度，达到该长度说明更早的博文已被裁剪
+    @Value("${hmdp.feed.outbox.max-length:1000}")
+    private long outboxMaxLength;
 
     @Override
     public Result queryBlogById(Long id) {
+        // 布隆过滤器拦截不存在的博文
+        if(!idBloomFilter.mightContain(RedisConstants.BLOOM_BLOG_KEY, id)){
+            return Result.fail("博文不存在");
+        }
         // 根据id查询博文
         Blog blog = getById(id);
         if(blog==null){
@@ -56,39 +95,94 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
 
         // 查询用户
-        querryBlogUser(blog);
-        isBlogLiked(blog);
+        hydrateBlogs(Collections.singletonList(blog));
 
         return Result.ok(blog);
     }
 
     @Override
     public Result queryHotBlog(Integer current) {
+        // 从热度排行中查询当前页的博文id
+        List<Long> ids = blogHotRanking.page(current, SystemConstants.MAX_PAGE_SIZE);
+        List<Blog> records;
+        if(ids == null){
+            // 排行尚未建立，按点赞数查询数据库
+            Page<Blog> page = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            records = page.getRecords();
+        }else{
+            records = loadBlogs(ids);
+        }
+        // 查询用户
+        hydrateBlogs(records);
+        return Result.ok(records);
+    }
+
+    @Override
+    public Result queryBlogByUserId(Long userId, Integer current) {
         // 根据用户查询
         Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", userId).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            querryBlogUser(blog);
-            isBlogLiked(blog);
-        });
+        hydrateBlogs(records);
         return Result.ok(records);
     }
 
-    public void isBlogLiked(Blog blog){
-        //获取用户id
-        UserDTO user =UserHolder.getUser();
-        if(user==null){
+    //按id批量查询博文，结果与ids顺序一致并跳过不存在的博文
+    //缓存中的对象会被多个请求共享，复制后再补充作者和点赞状态
+    private List<Blog> loadBlogs(List<Long> ids){
+        return cacheClient.queryBatchByIds(RedisConstants.CACHE_BLOG_KEY, ids, Blog.class, this::listByIds,
+                        Blog::getId, RedisConstants.CACHE_BLOG_TTL, TimeUnit.MINUTES)
+                .stream().filter(Objects::nonNull)
+                .map(blog -> BeanUtil.copyProperties(blog, Blog.class))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 批量补充博文作者和当前用户是否点赞
+     * 作者一次批量查询缓存（未命中的一次查询数据库），点赞状态一次pipeline，每页的查询次数与博文数量无关
+     */
+    private void hydrateBlogs(List<Blog> blogs){
+        if(blogs.isEmpty()){
             return;
         }
-        Long userId = user.getId();
-        //redis中查询用户是否点赞
-        String key = RedisConstants.BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score!=null);
+        //查询作者
+        Map<Long, UserDTO> authors = queryUsers(blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList()))
+                .stream().filter(Objects::nonNull)
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        for (Blog blog : blogs) {
+            UserDTO author = authors.get(blog.getUserId());
+            if(author != null){
+                blog.setName(author.getNickName());
+                blog.setIcon(author.getIcon());
+            }
+        }
+        //查询当前用户是否点赞，未登录时不查询
+        UserDTO user = UserHolder.getUser();
+        if(user == null){
+            return;
+        }
+        byte[] member = user.getId().toString().getBytes(StandardCharsets.UTF_8);
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Blog blog : blogs) {
+                connection.zSetCommands().zScore((RedisConstants.BLOG_LIKED_KEY + blog.getId()).getBytes(StandardCharsets.UTF_8), member);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
+    //批量查询用户的公开信息，结果与ids顺序一致，不存在的用户为null
+    private List<UserDTO> queryUsers(List<Long> ids){
+        return cacheClient.queryBatchByIds(RedisConstants.CACHE_USER_KEY, ids, UserDTO.class,
+                userIds -> userService.listByIds(userIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toList()),
+                UserDTO::getId, RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES);
     }
 
     @Override
@@ -105,6 +199,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             //更新数据库成功更新redis，加入点赞集合
             if(isSuccess){
                 stringRedisTemplate.opsForZSet().add(key,userId.toString(),System.currentTimeMillis());
+                blogHotRanking.incrLiked(id, 1);
+                cacheClient.delete(RedisConstants.CACHE_BLOG_KEY + id);
             }
         }else{
             //已经点赞,取消点赞,点赞数-1
@@ -113,6 +209,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             //更新数据库成功更新redis，移除点赞集合
             if(isSuccess){
                 stringRedisTemplate.opsForZSet().remove(key,userId.toString());
+                blogHotRanking.incrLiked(id, -1);
+                cacheClient.delete(RedisConstants.CACHE_BLOG_KEY + id);
             }
         }
         return Result.ok();
@@ -128,12 +226,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         //获得用户id
         List<Long> ids = userSet.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        //根据id查询用户
-        List<UserDTO> userDTOS = userService.query().in("id",ids)
-                .last("ORDER BY FIELD(id,"+idStr +")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+        //根据id批量查询用户，保持点赞顺序
+        List<UserDTO> userDTOS = queryUsers(ids).stream()
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
         return Result.ok(userDTOS);
     }
@@ -144,22 +239,21 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         UserDTO user = UserHolder.getUser();
         Long userId = user.getId();
         blog.setUserId(userId);
+        //发布时间精确到秒，与收件箱中的分数一致，收件箱被裁剪后可以从数据库按同样的游标继续翻页
+        LocalDateTime createTime = LocalDateTime.now().withNano(0);
+        blog.setCreateTime(createTime);
         // 保存探店博文
         boolean isSuccess = save(blog);
 
         if(!isSuccess){
             return Result.fail("新增博文失败");
         }
-        //查询关注的用户id
-        List<Follow> follows = followService.query().eq("follow_user_id", userId).list();
-
+        // 写入布隆过滤器
+        idBloomFilter.add(RedisConstants.BLOOM_BLOG_KEY, blog.getId());
         Long blogId = blog.getId();
-        //feed流给每一个用户推送zset
-        for (Follow follow : follows) {
-            String key = RedisConstants.FEED_KEY + follow.getUserId();
-
-            stringRedisTemplate.opsForZSet().add(key,blogId.toString(),System.currentTimeMillis());
-        }
+        //异步推送给粉丝，不在请求线程中逐个写入收件箱
+        feedFanoutWorker.publish(userId, blogId, createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        blogHotRanking.add(blogId, createTime);
         // 返回id
         return Result.ok(blogId);
     }
@@ -171,10 +265,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         //获取key
         String key = RedisConstants.FEED_KEY + userId;
 
-        //获取feed流数据
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
-        if(typedTuples==null || typedTuples.isEmpty()){
+        //获取feed流数据：自己的收件箱，以及关注的大V的发件箱
+        List<ZSetOperations.TypedTuple<String>> typedTuples = readFeed(userId, key, max, offset);
+        if(typedTuples.isEmpty()){
             return Result.ok();
         }
 
@@ -186,7 +279,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             Long blogId = Long.valueOf(typedTuple.getValue());
             ids.add(blogId);
             Long time = typedTuple.getScore().longValue();
-            if(time == minTime){
+            if(time.equals(minTime)){
                 of++;
             }else{
                 minTime = time;
@@ -195,14 +288,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
 
         //查询博文
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")").list();
+        List<Blog> blogs = loadBlogs(ids);
         //补充博文相关用户，和是否点赞表示
-        for (Blog blog : blogs) {
-            querryBlogUser(blog);
-            isBlogLiked(blog);
-        }
+        hydrateBlogs(blogs);
 
         ScrollResult scrollResult = new ScrollResult();
         scrollResult.setList(blogs);
@@ -211,10 +299,76 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(scrollResult);
     }
 
-    void querryBlogUser(Blog blog){
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    /**
+     * 合并收件箱和关注的大V发件箱，按时间倒序取一页
+     * 每个来源最多取 offset+FEED_PAGE_SIZE 条，合并后跳过与上一页最后时间相同的offset条
+     * 收件箱只保留最新的一部分且长期不读会过期，只有收件箱被裁剪、过期或过期后重建，且读到收件箱末尾时，才从数据库补齐更早的博文
+     * 发件箱同样只保留最新的一部分，读到被裁剪的发件箱末尾时也从数据库补齐
+     */
+    private List<ZSetOperations.TypedTuple<String>> readFeed(Long userId, String inboxKey, Long max, Integer offset){
+        List<String> keys = new ArrayList<>();
+        keys.add(inboxKey);
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet()
+                .intersect(RedisConstants.FOLLOW_KEY + userId, RedisConstants.FEED_BIG_AUTHORS_KEY);
+        if(bigAuthors != null){
+            bigAuthors.forEach(authorId -> keys.add(RedisConstants.FEED_OUTBOX_KEY + authorId));
+        }
+        int count = offset + FEED_PAGE_SIZE;
+        String partialKey = RedisConstants.FEED_PARTIAL_KEY + userId;
+        //一次pipeline读取所有来源，并为收件箱续期，同时读取收件箱长度、不完整标记和各发件箱长度
+        byte[] rawInboxKey = inboxKey.getBytes(StandardCharsets.UTF_8);
+        byte[] rawPartialKey = partialKey.getBytes(StandardCharsets.UTF_8);
+        long ttlSeconds = TimeUnit.DAYS.toSeconds(inboxTtlDays);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for(String key : keys){
+                connection.zSetCommands().zRevRangeByScoreWithScores(key.getBytes(StandardCharsets.UTF_8),
+                        Range.closed(0d, max.doubleValue()), Limit.limit().count(count));
+            }
+            connection.keyCommands().expire(rawInboxKey, ttlSeconds);
+            connection.zSetCommands().zCard(rawInboxKey);
+            connection.keyCommands().exists(rawPartialKey);
+            connection.keyCommands().expire(rawPartialKey, ttlSeconds);
+            for(String key : keys.subList(1, keys.size())){
+                connection.zSetCommands().zCard(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        //同一篇博文可能同时来自收件箱和数据库，按博文id去重
+        Map<String, ZSetOperations.TypedTuple<String>> merged = new HashMap<>();
+        for(Object result : results.subList(0, keys.size())){
+            if(result instanceof Set<?> tuples){
+                for(Object tuple : tuples){
+                    if(tuple instanceof ZSetOperations.TypedTuple<?> t && t.getValue() instanceof String blogId){
+                        merged.put(blogId, ZSetOperations.TypedTuple.of(blogId, t.getScore()));
+                    }
+                }
+            }
+        }
+        //读到了收件箱末尾，且收件箱已被裁剪（长度达到上限）、已过期（不存在）或过期后由推送重建，从关注的用户发布的博文中读取
+        long inboxSize = results.get(keys.size() + 1) instanceof Long size ? size : 0L;
+        boolean partial = Boolean.TRUE.equals(results.get(keys.size() + 2));
+        boolean incomplete = tailReached(results.get(0), count) && (inboxSize == 0 || inboxSize >= inboxMaxLength || partial);
+        //读到了被裁剪的发件箱末尾
+        for(int i = 1; i < keys.size() && !incomplete; i++){
+            long outboxSize = results.get(keys.size() + 3 + i) instanceof Long size ? size : 0L;
+            incomplete = outboxSize >= outboxMaxLength && tailReached(results.get(i), count);
+        }
+        if(incomplete){
+            LocalDateTime maxTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(max), ZoneId.systemDefault());
+            for(Blog blog : getBaseMapper().queryFollowFeed(userId, maxTime, count)){
+                double score = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                merged.putIfAbsent(blog.getId().toString(), ZSetOperations.TypedTuple.of(blog.getId().toString(), score));
+            }
+        }
+        //按时间倒序，时间相同时按博文id倒序，保证翻页时顺序一致
+        return merged.values().stream()
+                .sorted(Comparator.comparing((ZSetOperations.TypedTuple<String> t) -> t.getScore())
+                        .thenComparing(t -> Long.valueOf(t.getValue())).reversed())
+                .skip(offset).limit(FEED_PAGE_SIZE).collect(Collectors.toList());
+    }
+
+    //一个来源读取的博文数不足count条，说明已读到该来源的末尾
+    private static boolean tailReached(Object result, int count){
+        return !(result instanceof Set<?> tuples) || tuples.size() < count;
     }
 }
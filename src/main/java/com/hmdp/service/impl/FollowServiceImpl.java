@@ -9,6 +9,7 @@ import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -40,7 +41,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result follow(Long followUserId, boolean isFollow) {
         //获取登陆用户id
         Long userId = UserHolder.getUser().getId();
-        String key = "follow:"+userId;
+        String key = RedisConstants.FOLLOW_KEY+userId;
         //如果未关注，则添加关注
         if(isFollow){
             Follow follow = new Follow();
@@ -77,8 +78,8 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
         //获得用户id
         Long userId = UserHolder.getUser().getId();
         //获得key
-        String key1 = "follow:" + userId;
-        String key2 = "follow:" + id;
+        String key1 = RedisConstants.FOLLOW_KEY + userId;
+        String key2 = RedisConstants.FOLLOW_KEY + id;
         //redis 查询用户共同关注
         Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key1, key2);
         //如果没有共同关注，则返回空
@@ -4,26 +4,36 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.alibaba.fastjson.JSONObject;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.NearbyScrollResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheOutboxPoller;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisObjectData;
+import com.hmdp.utils.ShopGeoIndex;
 import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.domain.geo.GeoShape;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
@@ -39,6 +49,7 @@ import java.util.concurrent.TimeUnit;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -48,6 +59,29 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     @Autowired
     private CacheClient cacheClient;
+
+    @Autowired
+    private CacheOutboxPoller cacheOutboxPoller;
+
+    @Autowired
+    private ShopGeoIndex shopGeoIndex;
+
+    //附近商铺的查询半径（米）
+    private static final double GEO_RADIUS = 5000;
+    //多类型附近商铺查询的初始半径和最大半径（米）
+    private static final double NEARBY_MIN_RADIUS = 1000;
+    private static final double NEARBY_MAX_RADIUS = 16000;
+    //第一次查询附近商铺时的窗口大小
+    private static final int GEO_WINDOW_SIZE = 100;
+    //同一位置的查询窗口，翻页时直接从窗口中读取
+    private final Cache<String, GeoWindow> geoWindows = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    //开启后商铺缓存使用概率提前过期，代替互斥锁
+    @Value("${hmdp.cache.xfetch.enabled:false}")
+    private boolean xfetchEnabled;
     /**
      * 根据商铺ID查询商铺信息
      * @param id 商铺ID
@@ -58,9 +92,16 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //解决缓存穿透问题
 //        Shop shop = cacheClient.queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY,id,Shop.class,this::getById,
 //            RedisConstants.CACHE_SHOP_TTL,TimeUnit.MINUTES);
-        //互斥锁解决缓存击穿问题
-        Shop shop = cacheClient.queryByIdWithMutex(RedisConstants.CACHE_SHOP_KEY,RedisConstants.LOCK_SHOP_KEY,id,Shop.class,this::getById,
-                RedisConstants.CACHE_SHOP_TTL,TimeUnit.SECONDS);
+        Shop shop;
+        if(xfetchEnabled){
+            //概率提前过期解决缓存击穿问题
+            shop = cacheClient.queryWithEarlyExpiration(RedisConstants.CACHE_SHOP_KEY,id,Shop.class,this::getById,
+                    RedisConstants.CACHE_SHOP_TTL,TimeUnit.SECONDS);
+        }else{
+            //互斥锁解决缓存击穿问题
+            shop = cacheClient.queryByIdWithMutex(RedisConstants.CACHE_SHOP_KEY,RedisConstants.LOCK_SHOP_KEY,id,Shop.class,this::getById,
+                    RedisConstants.CACHE_SHOP_TTL,TimeUnit.SECONDS);
+        }
 
         //逻辑过期时间解决缓存穿透问题
 //        Shop shop = cacheClient.queryByIdWithLogicExpire(RedisConstants.CACHE_SHOP_KEY,RedisConstants.LOCK_SHOP_KEY,id,Shop.class,this::getById,
@@ -208,13 +249,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //获取店铺信息
         Shop shop = getById(id);
         //Thread.sleep(100);//模拟数据重建时间
-        //封装
-        RedisObjectData redisObjectData = RedisObjectData.builder()
-                .expireTime(LocalDateTime.now().plusSeconds(expireSeconds))
-                .data(shop)
-                .build();
-        //写入redis
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY+id,JSONObject.toJSONString(redisObjectData));
+        //封装,并写入redis
+        cacheClient.setWithLogicExpire(RedisConstants.CACHE_SHOP_KEY+id,shop,expireSeconds,TimeUnit.SECONDS);
     }
 
     private Shop dealData(RedisObjectData box){
@@ -228,6 +264,16 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 
 
+    @Transactional
+    @Override
+    public Result saveShop(Shop shop) {
+        //写入数据库
+        save(shop);
+        //写入缓存失效记录，提交后清除可能存在的空值缓存并加入GEO
+        cacheOutboxPoller.record(CacheOutboxPoller.ENTITY_SHOP, shop.getId());
+        return Result.ok(shop.getId());
+    }
+
     @Transactional
     @Override
     public Result updateShop(Shop shop) {
@@ -237,8 +283,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //更新数据库
         updateById(shop);
-        //删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY+shop.getId());
+        //写入缓存失效记录，与更新在同一事务中，提交后删除缓存并刷新GEO
+        cacheOutboxPoller.record(CacheOutboxPoller.ENTITY_SHOP, shop.getId());
         //返回
         return Result.ok();
     }
@@ -257,46 +303,199 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //计算分页
         int from = (current-1)*SystemConstants.DEFAULT_PAGE_SIZE;
         int end = current*SystemConstants.DEFAULT_PAGE_SIZE;
-        //redis中查询店铺
-        String key = RedisConstants.SHOP_GEO_KEY + typeId;
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
-                key,
-                GeoReference.fromCoordinate(x, y),
-                new Distance(5000),
-                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
-
-        );
-        //判断查询结果是否存在
-        if(results==null){
+        //从排好序的查询窗口中截取from-end范围内的数据
+        List<ShopGeoIndex.GeoHit> hits = geoWindow(typeId, x, y, end).hits;
+        if(hits.size() <= from){
             return Result.ok(Collections.emptyList());
         }
-        //解析出id
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if(list.size() <= from){
+        return Result.ok(loadShops(hits.subList(from, Math.min(end, hits.size()))));
+    }
+
+    @Override
+    public Result scrollShopByType(Integer typeId, Double x, Double y, Double lastDistance, Long lastId) {
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        ShopGeoIndex.GeoHit cursor = lastDistance == null ? null
+                : new ShopGeoIndex.GeoHit(lastId == null ? Long.MAX_VALUE : lastId, lastDistance);
+        //在窗口中定位游标，窗口不够时扩大窗口
+        //窗口过期重建后可能比游标浅，游标落在窗口末尾之后时继续按两倍扩大，直到包含游标之后的一页或已包含全部商铺
+        GeoWindow window = geoWindow(typeId, x, y, size);
+        int from = window.indexAfter(cursor);
+        while(from + size > window.hits.size() && !window.complete){
+            window = geoWindow(typeId, x, y, from + size);
+            from = window.indexAfter(cursor);
+        }
+        List<ShopGeoIndex.GeoHit> hits = window.hits.subList(Math.min(from, window.hits.size()),
+                Math.min(from + size, window.hits.size()));
+        NearbyScrollResult result = new NearbyScrollResult();
+        result.setList(hits.isEmpty() ? Collections.emptyList() : loadShops(hits));
+        if(!hits.isEmpty()){
+            //返回本页最后一个商铺作为下一页的游标
+            ShopGeoIndex.GeoHit last = hits.get(hits.size() - 1);
+            result.setLastDistance(last.getDistance());
+            result.setLastId(last.getShopId());
+        }
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result queryNearbyShops(List<Long> typeIds, Double x, Double y, Integer count) {
+        if(typeIds == null || typeIds.isEmpty()){
             return Result.ok(Collections.emptyList());
         }
-        List<Long> ids = new ArrayList<>();
-        Map<String,Distance> distanceMap  = new HashMap<>();
-        //截取from-end范围内的数据
-        list.stream().skip(from).forEach(result->{
-            //获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            //获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr,distance);
-
-        });
-        //根据id查询shop
-        String idStr = StrUtil.join(",",ids);
-        List<Shop> shops = query().in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")").list();
-        for(Shop shop:shops){
-            //设置距离
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+        int k = Math.min(count == null ? SystemConstants.DEFAULT_PAGE_SIZE : count, SystemConstants.MAX_PAGE_SIZE);
+        //从较小的半径开始查询，不足k个时扩大半径
+        List<ShopGeoIndex.GeoHit> hits = Collections.emptyList();
+        for(double radius = NEARBY_MIN_RADIUS; radius <= NEARBY_MAX_RADIUS; radius *= 2){
+            hits = mergeNearest(searchTypes(typeIds, x, y, radius, k), k);
+            if(hits.size() >= k){
+                break;
+            }
         }
-        return Result.ok(shops);
+        return Result.ok(hits.isEmpty() ? Collections.emptyList() : loadShops(hits));
+    }
 
+    //一次pipeline查询多个类型的附近商铺，每个类型最多k个，返回每个类型按距离排好序的结果
+    private List<List<ShopGeoIndex.GeoHit>> searchTypes(List<Long> typeIds, double x, double y, double radius, int k){
+        List<Object> results = null;
+        try {
+            results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for(Long typeId : typeIds){
+                    connection.geoCommands().geoSearch(
+                            (RedisConstants.SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8),
+                            GeoReference.fromCoordinate(x, y),
+                            GeoShape.byRadius(new Distance(radius)),
+                            RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(k));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("批量查询商铺GEO失败: {}", typeIds, e);
+        }
+        List<List<ShopGeoIndex.GeoHit>> lists = new ArrayList<>(typeIds.size());
+        for(int i = 0; i < typeIds.size(); i++){
+            List<ShopGeoIndex.GeoHit> hits = new ArrayList<>();
+            Object result = results == null ? null : results.get(i);
+            if(result instanceof GeoResults<?> geoResults && !geoResults.getContent().isEmpty()){
+                for(GeoResult<?> geoResult : geoResults.getContent()){
+                    Object name = ((RedisGeoCommands.GeoLocation<?>) geoResult.getContent()).getName();
+                    String id = name instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : name.toString();
+                    hits.add(new ShopGeoIndex.GeoHit(Long.parseLong(id), geoResult.getDistance().getValue()));
+                }
+            }else if(shopGeoIndex.isReady()){
+                //redis GEO不可用或未加载时，使用本地位置索引
+                hits.addAll(shopGeoIndex.nearest(typeIds.get(i), x, y, radius, k, null, null));
+            }
+            hits.sort(ShopGeoIndex.ORDER);
+            lists.add(hits);
+        }
+        return lists;
+    }
 
+    //多路归并，取所有类型中距离最近的k个
+    private static List<ShopGeoIndex.GeoHit> mergeNearest(List<List<ShopGeoIndex.GeoHit>> lists, int k){
+        //堆中保存 [列表下标, 元素下标]，按当前元素排序
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) ->
+                ShopGeoIndex.ORDER.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1])));
+        for(int i = 0; i < lists.size(); i++){
+            if(!lists.get(i).isEmpty()){
+                heads.offer(new int[]{i, 0});
+            }
+        }
+        List<ShopGeoIndex.GeoHit> merged = new ArrayList<>(k);
+        while(merged.size() < k && !heads.isEmpty()){
+            int[] head = heads.poll();
+            List<ShopGeoIndex.GeoHit> list = lists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if(head[1] + 1 < list.size()){
+                heads.offer(new int[]{head[0], head[1] + 1});
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 获取附近商铺的查询窗口，窗口中至少包含required个商铺（半径内商铺不足时除外）
+     * 同一位置的连续翻页复用同一个窗口，窗口不够时按两倍扩大，每页的平均开销与页码无关
+     */
+    private GeoWindow geoWindow(Integer typeId, double x, double y, int required){
+        String windowKey = typeId + ":" + x + ":" + y;
+        GeoWindow window = geoWindows.getIfPresent(windowKey);
+        if(window == null || (!window.complete && window.hits.size() < required)){
+            int limit = Math.max(required, window == null ? GEO_WINDOW_SIZE : window.hits.size() * 2);
+            window = loadGeoWindow(typeId, x, y, limit);
+            geoWindows.put(windowKey, window);
+        }
+        return window;
+    }
+
+    private GeoWindow loadGeoWindow(Integer typeId, double x, double y, int limit){
+        //redis中查询店铺
+        String key = RedisConstants.SHOP_GEO_KEY + typeId;
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = null;
+        try {
+            results = stringRedisTemplate.opsForGeo().search(
+                    key,
+                    GeoReference.fromCoordinate(x, y),
+                    new Distance(GEO_RADIUS),
+                    RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(limit)
+            );
+        } catch (Exception e) {
+            log.error("查询商铺GEO失败: {}", key, e);
+        }
+        List<ShopGeoIndex.GeoHit> hits = new ArrayList<>();
+        if((results == null || results.getContent().isEmpty()) && shopGeoIndex.isReady()){
+            //redis GEO不可用或未加载时，使用本地位置索引
+            hits.addAll(shopGeoIndex.nearest(typeId.longValue(), x, y, GEO_RADIUS, limit, null, null));
+        }else if(results != null){
+            results.getContent().forEach(result -> hits.add(new ShopGeoIndex.GeoHit(
+                    Long.parseLong(result.getContent().getName()), result.getDistance().getValue())));
+        }
+        //距离相同时按商铺id排序，保证游标位置唯一
+        hits.sort(ShopGeoIndex.ORDER);
+        return new GeoWindow(hits, hits.size() < limit);
+    }
+
+    //通过缓存批量查询shop，未命中的一次查询数据库，并设置距离
+    private List<Shop> loadShops(List<ShopGeoIndex.GeoHit> hits){
+        List<Long> ids = new ArrayList<>(hits.size());
+        for(ShopGeoIndex.GeoHit hit : hits){
+            ids.add(hit.getShopId());
+        }
+        List<Shop> cached = cacheClient.queryBatchByIds(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, RedisConstants.CACHE_SHOP_TTL, TimeUnit.SECONDS);
+        List<Shop> shops = new ArrayList<>(hits.size());
+        for(int i = 0; i < hits.size(); i++){
+            Shop shop = cached.get(i);
+            //GEO中存在但商铺已删除
+            if(shop == null){
+                continue;
+            }
+            //本地缓存中的对象是共享的，复制后再设置距离
+            Shop copy = new Shop();
+            BeanUtils.copyProperties(shop, copy);
+            copy.setDistance(hits.get(i).getDistance());
+            shops.add(copy);
+        }
+        return shops;
+    }
+
+    //按距离、商铺id排好序的查询结果，complete表示已包含半径内的所有商铺
+    private static class GeoWindow {
+        private final List<ShopGeoIndex.GeoHit> hits;
+        private final boolean complete;
+
+        GeoWindow(List<ShopGeoIndex.GeoHit> hits, boolean complete) {
+            this.hits = hits;
+            this.complete = complete;
+        }
+
+        //游标之后第一个商铺的位置
+        int indexAfter(ShopGeoIndex.GeoHit cursor){
+            if(cursor == null){
+                return 0;
+            }
+            int index = Collections.binarySearch(hits, cursor, ShopGeoIndex.ORDER);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
     }
 }
@@ -10,6 +10,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.SystemConstants;
@@ -44,6 +45,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private IdBloomFilter idBloomFilter;
     @Override
     public Result sendCode(String phone, HttpSession session) {
         //1. 校验手机号格式
@@ -86,7 +89,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             user.setPhone(loginForm.getPhone());
             user.setNickName(SystemConstants.USER_NICK_NAME_PREFIX +RandomUtil.randomString(10));
             save(user);
-
+            //写入布隆过滤器
+            idBloomFilter.add(RedisConstants.BLOOM_USER_KEY, user.getId());
         }
 
         //封装DTO对象
@@ -10,30 +10,31 @@ import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisWorker;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockRouter;
 import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.StreamConsumerGroup;
 import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -59,49 +60,91 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private RedisWorker redisWorker;
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private SeckillSoldOutCache seckillSoldOutCache;
 
     @Autowired
     private RedissonClient redissonClient;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static{
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    @Autowired
+    private SeckillStockRouter seckillStockRouter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     //private BlockingQueue<VoucherOrder> orderTask = new ArrayBlockingQueue<>(1024*1024);
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    //订单消息的消费组：批量落库、pending消息恢复、死信队列和裁剪已确认的消息，每个订单消息队列一个
+    private final List<StreamConsumerGroup> orderConsumerGroups = new ArrayList<>();
+    //消费线程不在请求线程中，无法通过AopContext获取代理对象，这里注入延迟代理
+    @Lazy
+    @Autowired
     private IVoucherOrderService proxy;
-    private static final String queenName = "stream.orders";
     @Autowired
     private VoucherOrderMapper voucherOrderMapper;
 
+    //秒杀库存分片数
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
+    //每个节点每个分片订单队列的消费者数量
+    @Value("${hmdp.seckill.order.consumer-count:4}")
+    private int consumerCount;
+    //每次从stream中读取的消息数量
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+    //pendinglist中的消息空闲超过该时间（毫秒）才会被认领重试
+    @Value("${hmdp.seckill.order.pending-idle:10000}")
+    private long pendingIdleMillis;
+    //消息最大投递次数，超过后转入死信队列
+    @Value("${hmdp.seckill.order.max-deliveries:5}")
+    private int maxDeliveries;
+
     @PostConstruct
     private void init(){
-        //启动订单处理线程
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        //每个库存分片一个订单消息队列，当前分片数以内的队列使用consumerCount个消费者，
+        //其他分片和旧的单key库存的stream.orders只需消费调整分片数之前的订单，使用一个消费者
+        startConsumerGroup(SeckillStockRouter.ORDER_STREAM, 1);
+        for (int i = 0; i < SeckillStockRouter.MAX_SHARDS; i++) {
+            startConsumerGroup(SeckillStockRouter.shardStream(i), i < stockShards ? consumerCount : 1);
+        }
+    }
+
+    //启动订单消费组，每个线程作为消费组中的一个独立消费者，超过最大投递次数的消息转入 队列名.dlq
+    private void startConsumerGroup(String stream, int consumers){
+        StreamConsumerGroup group = new StreamConsumerGroup(stringRedisTemplate, redissonClient, stream, this::handleRecords)
+                .consumers(consumers)
+                .readCount(batchSize)
+                .pendingIdle(pendingIdleMillis)
+                .maxDeliveries(maxDeliveries)
+                .metrics(meterRegistry);
+        group.start();
+        orderConsumerGroups.add(group);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        orderConsumerGroups.forEach(StreamConsumerGroup::stop);
     }
 
     //基于redis stream实现异步下单的秒杀
     @Override
     public Result setKillVoucher(Long voucherId) {
+        //本地已标记售罄，直接返回，不访问redis
+        if(seckillSoldOutCache.isSoldOut(voucherId)){
+            return Result.ok("库存不足");
+        }
         //获取用户ID
         Long userId = UserHolder.getUser().getId();
         //生成订单ID
         Long orderId = redisWorker.nextId("order");
 
-        //执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                userId.toString(),
-                orderId.toString()
-
-        );
+        //执行lua脚本，分片库存时先扣减用户所属分片
+        long result = seckillStockRouter.tryDeduct(voucherId, userId, orderId);
         //判断是否为0
-        if(result != 0L){
+        if(result != SeckillStockRouter.OK){
+            if(result == SeckillStockRouter.SOLD_OUT){
+                //库存不足，标记本地售罄
+                seckillSoldOutCache.markSoldOut(voucherId);
+            }
             return Result.ok(result==1?"库存不足":"用户已下单");
         }
 
@@ -109,86 +152,16 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     }
 
-    private class VoucherOrderHandler implements Runnable {
-        @Override
-        public void run() {
-            while(true){
-                try {
-                    //从redis stream中获取订单
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2L)),
-                            StreamOffset.create(queenName, ReadOffset.lastConsumed())
-                    );
-                    //如果没有消息
-                    if(list==null || list.isEmpty()){
-                        //继续循环
-                        continue;
-                    }
-
-                    //获取消息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> voucherOrderMap = record.getValue();
-                    //将消息转换为VoucherOrder对象
-                    VoucherOrder voucherOrder = new VoucherOrder();
-                    BeanUtil.fillBeanWithMap(voucherOrderMap,voucherOrder, true);
-
-                    handleVoucherOrder(voucherOrder);
-                    //ack消息
-                    stringRedisTemplate.opsForStream().acknowledge(
-                            queenName,
-                            "g1",
-                            record.getId()
-                    );
-                } catch (Exception e) {
-                    log.error("订单线程异常",e);
-                    //异常查看pendinglist中的消息
-                    hadlePendingList();
-                }
-            }
-
-        }
-    }
-
-    public void hadlePendingList(){
-        while(true){
-            try{
-                //从redis stream中获取订单
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create(queenName, ReadOffset.from("0"))
-                );
-                //如果没有消息
-                if(list==null || list.isEmpty()){
-                    //pendinglist中无异常消息，结束循环
-                    break;
-                }
-
-                //获取消息
-                MapRecord<String, Object, Object> record = list.get(0);
-                Map<Object, Object> voucherOrderMap = record.getValue();
-                //将消息转换为VoucherOrder对象
-                VoucherOrder voucherOrder = new VoucherOrder();
-                BeanUtil.fillBeanWithMap(voucherOrderMap,voucherOrder, true);
-
-                handleVoucherOrder(voucherOrder);
-                //ack消息
-                stringRedisTemplate.opsForStream().acknowledge(
-                        queenName,
-                        "g1",
-                        record.getId()
-                );
-            }catch (Exception e){
-                log.error("订单处理异常",e);
-                try {
-                    Thread.sleep(20L);
-                } catch (InterruptedException ex) {
-                    throw new RuntimeException(ex);
-                }
-            }
-
+    //批量处理一批消息：一次事务落库，返回后由消费组一次XACK确认
+    private void handleRecords(List<MapRecord<String, Object, Object>> records){
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            //将消息转换为VoucherOrder对象
+            VoucherOrder voucherOrder = new VoucherOrder();
+            BeanUtil.fillBeanWithMap(record.getValue(), voucherOrder, true);
+            voucherOrders.add(voucherOrder);
         }
+        proxy.createVoucherOrders(voucherOrders);
     }
 
 
@@ -207,29 +180,6 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        }
 //    }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder){
-        //获取锁对象
-        //SimpleRedisLock simpleRedisLock = new SimpleRedisLock(stringRedisTemplate, "order:" + userId);
-        Long userId = voucherOrder.getUserId();
-        RLock rlock = redissonClient.getLock("order:" + userId);
-        //获取锁
-        //boolean isLocked = simpleRedisLock.tryLock(5L);
-        boolean isLocked = rlock.tryLock();
-        //如果获取锁失败
-        if(!isLocked){
-            log.error("一人只能下一单，用户ID: {}", userId);
-            return;
-        }
-        //获得代理对象（事务）
-        try{
-            proxy.createVoucherOrder(voucherOrder);
-        }finally{
-            //释放锁
-            //simpleRedisLock.unlock();
-            rlock.unlock();
-        }
-    }
-
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder){
         //判断用户是否已经购买过
@@ -253,6 +203,66 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         save(voucherOrder);
     }
 
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders){
+        //批次内按用户+优惠券去重（pendinglist重投可能带来重复消息）
+        Map<String, VoucherOrder> orderMap = new LinkedHashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            orderMap.putIfAbsent(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId(), voucherOrder);
+        }
+        //一次查询过滤已经购买过的用户
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = voucherOrders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        List<VoucherOrder> existOrders = query().select("user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds).list();
+        for (VoucherOrder exist : existOrders) {
+            if(orderMap.remove(exist.getUserId() + ":" + exist.getVoucherId()) != null){
+                log.error("该用户已购买过该优惠券，用户ID: {}, 优惠券ID: {}", exist.getUserId(), exist.getVoucherId());
+            }
+        }
+        if(orderMap.isEmpty()){
+            return;
+        }
+        //按优惠券分组，每个优惠券只扣减一次库存
+        Map<Long, List<VoucherOrder>> voucherOrderGroup = orderMap.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> saveOrders = new ArrayList<>(orderMap.size());
+        voucherOrderGroup.forEach((voucherId, orders) -> {
+            int deducted = deductStock(voucherId, orders.size());
+            if(deducted < orders.size()){
+                log.error("库存不足，优惠券ID: {}, 待下单数: {}, 实际扣减: {}", voucherId, orders.size(), deducted);
+            }
+            saveOrders.addAll(orders.subList(0, deducted));
+        });
+        //多行INSERT一次写入
+        if(!saveOrders.isEmpty()){
+            voucherOrderMapper.insertBatch(saveOrders);
+        }
+    }
+
+    //扣减库存，返回实际扣减的数量
+    private int deductStock(Long voucherId, int count){
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId).ge("stock", count)
+                .update();
+        if(success){
+            return count;
+        }
+        //剩余库存不足以扣减整批，按剩余库存扣减
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        int remain = seckillVoucher == null ? 0 : Math.min(seckillVoucher.getStock(), count);
+        if(remain <= 0){
+            return 0;
+        }
+        success = seckillVoucherService.update()
+                .setSql("stock = stock - " + remain)
+                .eq("voucher_id", voucherId).ge("stock", remain)
+                .update();
+        return success ? remain : 0;
+    }
+
     //使用java阻塞队列实现异步下单的秒杀
 //    @Override
 //    public Result setKillVoucher(Long voucherId) {
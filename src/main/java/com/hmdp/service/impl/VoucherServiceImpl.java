@@ -7,9 +7,10 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockRouter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -30,7 +31,13 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Autowired
     private ISeckillVoucherService seckillVoucherService;
     @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillSoldOutCache seckillSoldOutCache;
+    @Autowired
+    private SeckillStockRouter seckillStockRouter;
+
+    //秒杀库存分片数，大于1时库存拆分到多个子key，避免单个热点key
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -54,6 +61,8 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucherService.save(seckillVoucher);
 
         //保存秒杀库存到redis中
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY+voucher.getId(),voucher.getStock().toString());
+        seckillStockRouter.saveStock(voucher.getId(), voucher.getStock(), stockShards);
+        //通知所有节点清除本地售罄标记
+        seckillSoldOutCache.publishReplenish(voucher.getId());
     }
 }
@@ -0,0 +1,236 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * 紧凑二进制编解码，Shop、Blog、UserDTO按字段顺序写入，其他类型使用fastjson
+ * 二进制格式：MAGIC | 格式版本 | 类型标识 | 各字段（可空字段先写1字节是否为null）
+ * 字段变化时升级格式版本，其他版本写入的缓存按未命中处理，查询数据库后以当前版本覆盖
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "binary")
+public class BinaryCacheCodec implements CacheCodec {
+    //json不会以0开头，用于区分二进制与json格式
+    private static final byte MAGIC = 0;
+    //未带版本号的旧格式第二个字节是类型标识1-3，版本号从4开始避免混淆
+    private static final byte VERSION = 4;
+    private static final byte TYPE_SHOP = 1;
+    private static final byte TYPE_BLOG = 2;
+    private static final byte TYPE_USER = 3;
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    @Override
+    public byte[] encode(Object value) {
+        if(!(value instanceof Shop) && !(value instanceof Blog) && !(value instanceof UserDTO)){
+            return jsonCodec.encode(value);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            if(value instanceof Shop shop){
+                out.writeByte(TYPE_SHOP);
+                writeShop(out, shop);
+            }else if(value instanceof Blog blog){
+                out.writeByte(TYPE_BLOG);
+                writeBlog(out, blog);
+            }else{
+                out.writeByte(TYPE_USER);
+                writeUser(out, (UserDTO) value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if(bytes[0] != MAGIC){
+            return jsonCodec.decode(bytes, type);
+        }
+        if(!canDecode(bytes)){
+            throw new IllegalStateException("未知的缓存格式版本: " + (bytes.length > 1 ? bytes[1] : -1));
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 2, bytes.length - 2))) {
+            byte tag = in.readByte();
+            Object value = switch (tag) {
+                case TYPE_SHOP -> readShop(in);
+                case TYPE_BLOG -> readBlog(in);
+                case TYPE_USER -> readUser(in);
+                default -> throw new IllegalStateException("未知的缓存类型: " + tag);
+            };
+            return type.cast(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes[0] != MAGIC || (bytes.length > 2 && bytes[1] == VERSION);
+    }
+
+    private void writeShop(DataOutputStream out, Shop shop) throws IOException {
+        writeLong(out, shop.getId());
+        writeString(out, shop.getName());
+        writeLong(out, shop.getTypeId());
+        writeString(out, shop.getImages());
+        writeString(out, shop.getArea());
+        writeString(out, shop.getAddress());
+        writeDouble(out, shop.getX());
+        writeDouble(out, shop.getY());
+        writeLong(out, shop.getAvgPrice());
+        writeInt(out, shop.getSold());
+        writeInt(out, shop.getComments());
+        writeInt(out, shop.getScore());
+        writeString(out, shop.getOpenHours());
+        writeTime(out, shop.getCreateTime());
+        writeTime(out, shop.getUpdateTime());
+        writeDouble(out, shop.getDistance());
+    }
+
+    private Shop readShop(DataInputStream in) throws IOException {
+        return new Shop()
+                .setId(readLong(in))
+                .setName(readString(in))
+                .setTypeId(readLong(in))
+                .setImages(readString(in))
+                .setArea(readString(in))
+                .setAddress(readString(in))
+                .setX(readDouble(in))
+                .setY(readDouble(in))
+                .setAvgPrice(readLong(in))
+                .setSold(readInt(in))
+                .setComments(readInt(in))
+                .setScore(readInt(in))
+                .setOpenHours(readString(in))
+                .setCreateTime(readTime(in))
+                .setUpdateTime(readTime(in))
+                .setDistance(readDouble(in));
+    }
+
+    private void writeBlog(DataOutputStream out, Blog blog) throws IOException {
+        writeLong(out, blog.getId());
+        writeLong(out, blog.getShopId());
+        writeLong(out, blog.getUserId());
+        writeString(out, blog.getIcon());
+        writeString(out, blog.getName());
+        writeInt(out, blog.getIsLike() == null ? null : blog.getIsLike() ? 1 : 0);
+        writeString(out, blog.getTitle());
+        writeString(out, blog.getImages());
+        writeString(out, blog.getContent());
+        writeInt(out, blog.getLiked());
+        writeInt(out, blog.getComments());
+        writeTime(out, blog.getCreateTime());
+        writeTime(out, blog.getUpdateTime());
+    }
+
+    private Blog readBlog(DataInputStream in) throws IOException {
+        Blog blog = new Blog()
+                .setId(readLong(in))
+                .setShopId(readLong(in))
+                .setUserId(readLong(in))
+                .setIcon(readString(in))
+                .setName(readString(in));
+        Integer isLike = readInt(in);
+        return blog.setIsLike(isLike == null ? null : isLike == 1)
+                .setTitle(readString(in))
+                .setImages(readString(in))
+                .setContent(readString(in))
+                .setLiked(readInt(in))
+                .setComments(readInt(in))
+                .setCreateTime(readTime(in))
+                .setUpdateTime(readTime(in));
+    }
+
+    private void writeUser(DataOutputStream out, UserDTO user) throws IOException {
+        writeLong(out, user.getId());
+        writeString(out, user.getNickName());
+        writeString(out, user.getIcon());
+    }
+
+    private UserDTO readUser(DataInputStream in) throws IOException {
+        UserDTO user = new UserDTO();
+        user.setId(readLong(in));
+        user.setNickName(readString(in));
+        user.setIcon(readString(in));
+        return user;
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null){
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null){
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null){
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    //字符串写入 长度+UTF-8字节，null长度为-1
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if(value == null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0){
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //时间按UTC秒数写入，精确到秒
+    private static void writeTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null){
+            out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+        }
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        return in.readBoolean() ? LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC) : null;
+    }
+}
@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 热门博文排行：redis中维护最近一段时间内博文的热度zset，分数 = log2(点赞数+1) + 发布时间/半衰期，
+ * 即点赞数翻倍与晚发布一个半衰期的热度相同，越新的博文越靠前
+ * 点赞时由lua脚本增量更新，定时从数据库重建排行以修正偏差并移除超出时间窗口的博文
+ */
+@Slf4j
+@Component
+public class BlogHotRanking {
+    private static final String RANK_TMP_KEY = RedisConstants.BLOG_HOT_KEY + ":tmp";
+    private static final String LIKES_TMP_KEY = RedisConstants.BLOG_HOT_LIKES_KEY + ":tmp";
+    private static final String RECONCILE_LOCK_KEY = "lock:blog:hot";
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    static{
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("blog_hot.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final BlogMapper blogMapper;
+    private final RedissonClient redissonClient;
+
+    //热度半衰期（小时）
+    @Value("${hmdp.blog.hot.half-life-hours:24}")
+    private long halfLifeHours;
+    //只统计最近多少天发布的博文
+    @Value("${hmdp.blog.hot.window-days:30}")
+    private long windowDays;
+    //排行最多保留的博文数量
+    @Value("${hmdp.blog.hot.max-size:10000}")
+    private long maxSize;
+    @Value("${hmdp.blog.hot.reconcile-minutes:10}")
+    private long reconcileMinutes;
+
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "blog-hot-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BlogHotRanking(StringRedisTemplate stringRedisTemplate, BlogMapper blogMapper, RedissonClient redissonClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.blogMapper = blogMapper;
+        this.redissonClient = redissonClient;
+    }
+
+    //应用启动完成后立即重建一次，之后定时重建
+    @EventListener(ApplicationReadyEvent.class)
+    public void start(){
+        reconciler.scheduleWithFixedDelay(this::reconcile, 0, reconcileMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        reconciler.shutdownNow();
+    }
+
+    /**
+     * 新发布的博文加入排行
+     * @param blogId 博文id
+     * @param createTime 发布时间
+     */
+    public void add(Long blogId, LocalDateTime createTime){
+        byte[] member = blogId.toString().getBytes(StandardCharsets.UTF_8);
+        double score = score(0, createTime);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hSet(RedisConstants.BLOG_HOT_LIKES_KEY.getBytes(StandardCharsets.UTF_8),
+                    member, "0".getBytes(StandardCharsets.UTF_8));
+            connection.zSetCommands().zAdd(RedisConstants.BLOG_HOT_KEY.getBytes(StandardCharsets.UTF_8), score, member);
+            return null;
+        });
+    }
+
+    /**
+     * 点赞数变化时更新热度，不在排行中的博文不处理
+     * @param blogId 博文id
+     * @param delta 点赞数变化量
+     */
+    public void incrLiked(Long blogId, int delta){
+        stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(RedisConstants.BLOG_HOT_KEY, RedisConstants.BLOG_HOT_LIKES_KEY),
+                blogId.toString(), String.valueOf(delta));
+    }
+
+    /**
+     * 按热度分页查询博文id
+     * @param current 页码，从1开始
+     * @param size 每页数量
+     * @return 博文id，排行尚未建立时返回null
+     */
+    public List<Long> page(int current, int size){
+        long start = (long) (current - 1) * size;
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(RedisConstants.BLOG_HOT_KEY, start, start + size - 1);
+        if(ids == null || ids.isEmpty()){
+            return Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.BLOG_HOT_KEY)) ? Collections.emptyList() : null;
+        }
+        return ids.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    //从数据库重建排行，多个节点只需要一个节点执行
+    public void reconcile(){
+        RLock lock = redissonClient.getLock(RECONCILE_LOCK_KEY);
+        if(!lock.tryLock()){
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("重建热门博文排行失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //写入临时key后一次事务替换，重建期间的点赞增量以数据库为准
+    private void rebuild(){
+        stringRedisTemplate.delete(Arrays.asList(RANK_TMP_KEY, LIKES_TMP_KEY));
+        LocalDateTime since = LocalDateTime.now().minusDays(windowDays);
+        long lastId = 0L;
+        long total = 0L;
+        while(true){
+            List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                    .select("id", "liked", "create_time")
+                    .ge("create_time", since).gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE));
+            if(blogs.isEmpty()){
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] rankKey = RANK_TMP_KEY.getBytes(StandardCharsets.UTF_8);
+                byte[] likesKey = LIKES_TMP_KEY.getBytes(StandardCharsets.UTF_8);
+                for(Blog blog : blogs){
+                    int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                    byte[] member = blog.getId().toString().getBytes(StandardCharsets.UTF_8);
+                    connection.zSetCommands().zAdd(rankKey, score(liked, blog.getCreateTime()), member);
+                    connection.hashCommands().hSet(likesKey, member, String.valueOf(liked).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            total += blogs.size();
+            lastId = blogs.get(blogs.size() - 1).getId();
+        }
+        if(total == 0){
+            stringRedisTemplate.delete(Arrays.asList(RedisConstants.BLOG_HOT_KEY, RedisConstants.BLOG_HOT_LIKES_KEY));
+            return;
+        }
+        //只保留热度最高的maxSize篇，被移除博文的点赞数留在hash中不影响排行
+        stringRedisTemplate.opsForZSet().removeRange(RANK_TMP_KEY, 0, -maxSize - 1);
+        stringRedisTemplate.execute(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.multi();
+                ops.rename(RANK_TMP_KEY, RedisConstants.BLOG_HOT_KEY);
+                ops.rename(LIKES_TMP_KEY, RedisConstants.BLOG_HOT_LIKES_KEY);
+                return ops.exec();
+            }
+        });
+        log.info("热门博文排行重建完成，博文数量: {}", total);
+    }
+
+    private double score(int liked, LocalDateTime createTime){
+        long createSeconds = createTime.atZone(ZoneId.systemDefault()).toEpochSecond();
+        return Math.log(liked + 1) / Math.log(2) + (double) createSeconds / TimeUnit.HOURS.toSeconds(halfLifeHours);
+    }
+}
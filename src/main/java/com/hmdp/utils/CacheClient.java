@@ -4,67 +4,489 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.TypeReference;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import com.hmdp.entity.Shop;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 @Slf4j
 @Component
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
-
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final RedisMessageListenerContainer listenerContainer;
+    private final IdBloomFilter idBloomFilter;
+    //缓存值编解码器
+    private final CacheCodec cacheCodec;
+    //逻辑过期缓存的提前刷新
+    private final CacheRefresher cacheRefresher;
+    private final CacheMetrics cacheMetrics;
+    //逻辑过期缓存的格式标识：LOGIC_MAGIC | 8字节过期时间戳(毫秒) | 编码后的数据
+    private static final byte LOGIC_MAGIC = 1;
+    //提前过期缓存的格式标识：EARLY_MAGIC | 8字节过期时间戳(毫秒) | 8字节重建耗时(毫秒) | 编码后的数据
+    private static final byte EARLY_MAGIC = 2;
+    //缓存key前缀 -> 布隆过滤器key，命中前缀的查询先经过布隆过滤器
+    private static final Map<String, String> BLOOM_FILTERS = Map.of(
+            RedisConstants.CACHE_SHOP_KEY, RedisConstants.BLOOM_SHOP_KEY
+    );
+
+    //本地一级缓存，保存反序列化后的对象，命中时不访问redis
+    private Cache<String, Object> localCache;
+    //本地缓存中的空值占位
+    private static final Object NULL_VALUE = new Object();
+    @Value("${hmdp.cache.l1.maximum-size:10000}")
+    private long l1MaximumSize;
+    @Value("${hmdp.cache.l1.ttl-seconds:60}")
+    private long l1TtlSeconds;
+    //提前过期的系数，越大越早重建
+    @Value("${hmdp.cache.xfetch.beta:1.0}")
+    private double xfetchBeta;
+    //各级缓存的命中/未命中计数
+    private final LongAdder l1Hit = new LongAdder();
+    private final LongAdder l1Miss = new LongAdder();
+    private final LongAdder l2Hit = new LongAdder();
+    private final LongAdder l2Miss = new LongAdder();
+    //本节点正在进行的缓存重建，key -> 重建结果
+    private final Map<String, CompletableFuture<Object>> inFlightRebuilds = new ConcurrentHashMap<>();
+    //等待其他节点重建完成的通知，key -> 通知
+    private final Map<String, CompletableFuture<Void>> rebuildWaiters = new ConcurrentHashMap<>();
+    //等待其他节点重建通知的最长时间，超时后重新检查缓存
+    private static final long REBUILD_WAIT_MILLIS = 200L;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                       IdBloomFilter idBloomFilter, CacheCodec cacheCodec, CacheRefresher cacheRefresher,
+                       CacheMetrics cacheMetrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.idBloomFilter = idBloomFilter;
+        this.cacheCodec = cacheCodec;
+        this.cacheRefresher = cacheRefresher;
+        this.cacheMetrics = cacheMetrics;
+    }
+
+    @PostConstruct
+    private void init(){
+        //本地缓存过期时间取 本地TTL 与 写入时指定的TTL 中较小的一个
+        localCache = Caffeine.newBuilder()
+                .maximumSize(l1MaximumSize)
+                .expireAfter(new Expiry<String, Object>() {
+                    @Override
+                    public long expireAfterCreate(String key, Object value, long currentTime) {
+                        return TimeUnit.SECONDS.toNanos(l1TtlSeconds);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Object value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Object value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        //订阅缓存失效广播，清除本节点的本地缓存
+        listenerContainer.addMessageListener(
+                (message, pattern) -> localCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        //订阅其他节点缓存重建完成的通知，唤醒等待的线程
+        listenerContainer.addMessageListener((message, pattern) -> {
+            CompletableFuture<Void> waiter = rebuildWaiters.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+            if(waiter != null){
+                waiter.complete(null);
+            }
+        }, new ChannelTopic(RedisConstants.CACHE_REBUILT_CHANNEL));
+    }
+
+    //删除缓存，并广播给所有节点清除本地缓存
+    public void delete(String key){
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+        cacheRefresher.forget(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    //批量删除缓存，一次DEL，失效广播使用一次pipeline
+    public void deleteBatch(Collection<String> keys){
+        if(keys.isEmpty()){
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        localCache.invalidateAll(keys);
+        keys.forEach(cacheRefresher::forget);
+        byte[] channel = RedisConstants.CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for(String key : keys){
+                connection.publish(channel, key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    //各级缓存的命中统计
+    public Map<String, Long> getStats(){
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("l1.hit", l1Hit.sum());
+        stats.put("l1.miss", l1Miss.sum());
+        stats.put("l1.size", localCache.estimatedSize());
+        stats.put("l2.hit", l2Hit.sum());
+        stats.put("l2.miss", l2Miss.sum());
+        stats.put("refresh.rebuilt", cacheRefresher.getRebuiltCount());
+        stats.put("refresh.dropped", cacheRefresher.getDroppedCount());
+        stats.put("refresh.queued", (long) cacheRefresher.getQueueSize());
+        return stats;
+    }
+
+    //布隆过滤器判断ID一定不存在时，不再查询数据库
+    //过滤器在redis中，只在本地缓存和redis都未命中后才查询，命中缓存的请求不增加网络往返
+    private boolean definitelyAbsent(String keyPrefix, Object id){
+        String filterKey = BLOOM_FILTERS.get(keyPrefix);
+        return filterKey != null && !idBloomFilter.mightContain(filterKey, id);
+    }
+
+    //批量判断，返回可能存在的ID
+    private <ID> List<ID> filterAbsent(String keyPrefix, List<ID> ids){
+        String filterKey = BLOOM_FILTERS.get(keyPrefix);
+        return filterKey == null ? ids : idBloomFilter.mightContainAll(filterKey, ids);
+    }
+
+    //本地缓存命中，记录指标并返回
+    private <R> R localHit(String keyPrefix, String strategy, Object local, Class<R> type){
+        cacheMetrics.recordLookup(keyPrefix, strategy, local == NULL_VALUE ? CacheMetrics.NULL : CacheMetrics.L1_HIT);
+        return local == NULL_VALUE ? null : type.cast(local);
+    }
+
+    //redis命中，value为null表示命中空值
+    private void l2Hit(String keyPrefix, String strategy, Object value){
+        l2Hit.increment();
+        cacheMetrics.recordLookup(keyPrefix, strategy, value == null ? CacheMetrics.NULL : CacheMetrics.HIT);
+    }
+
+    private void l2Miss(String keyPrefix, String strategy){
+        l2Miss.increment();
+        cacheMetrics.recordLookup(keyPrefix, strategy, CacheMetrics.MISS);
+    }
+
+    //回源查询，记录重建耗时
+    private <T> T load(String keyPrefix, String strategy, Supplier<T> loader){
+        long begin = System.nanoTime();
+        try {
+            return loader.get();
+        } finally {
+            cacheMetrics.recordRebuild(keyPrefix, strategy, System.nanoTime() - begin);
+        }
+    }
+
+    //查询本地缓存，未命中返回null，命中空值返回NULL_VALUE
+    private Object getLocal(String key){
+        Object value = localCache.getIfPresent(key);
+        if(value == null){
+            l1Miss.increment();
+        }else{
+            l1Hit.increment();
+        }
+        return value;
+    }
+
+    private void putLocal(String key, Object value, Long time, TimeUnit timeUnit){
+        //空值使用空值的过期时间
+        long ttl = value == null
+                ? TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_NULL_TTL)
+                : timeUnit.toSeconds(time);
+        localCache.policy().expireVariably().get()
+                .put(key, value == null ? NULL_VALUE : value, Math.min(ttl, l1TtlSeconds), TimeUnit.SECONDS);
+    }
+
+    //解码普通缓存，兼容概率提前过期和逻辑过期格式的缓存
+    private <R> R decode(byte[] bytes, Class<R> type){
+        int offset = dataOffset(bytes);
+        if(offset == 0){
+            return cacheCodec.decode(bytes, type);
+        }
+        return offset == bytes.length ? null : cacheCodec.decode(Arrays.copyOfRange(bytes, offset, bytes.length), type);
+    }
+
+    private static int dataOffset(byte[] bytes){
+        return bytes[0] == EARLY_MAGIC ? 1 + Long.BYTES * 2
+                : bytes[0] == LOGIC_MAGIC ? 1 + Long.BYTES : 0;
+    }
+
+    //编码格式无法识别的缓存按不存在处理，查询数据库后以当前格式覆盖
+    private byte[] readable(byte[] bytes){
+        if(bytes == null || bytes.length == 0){
+            return bytes;
+        }
+        int offset = dataOffset(bytes);
+        if(offset >= bytes.length){
+            return bytes;
+        }
+        byte[] data = offset == 0 ? bytes : Arrays.copyOfRange(bytes, offset, bytes.length);
+        return cacheCodec.canDecode(data) ? bytes : null;
     }
 
     public void set(String key, Object value, Long time, TimeUnit timeUnit){
-        stringRedisTemplate.opsForValue().set(key, JSONObject.toJSONString(value), time, timeUnit);
+        setBytes(key, cacheCodec.encode(value), Expiration.from(time, timeUnit));
 
     }
 
     public void setWithLogicExpire(String key, Object value, Long time, TimeUnit timeUnit){
         //设置逻辑过期
-        RedisObjectData redisData = new RedisObjectData().builder()
-                .data(value)
-                .expireTime(LocalDateTime.now().plusSeconds(time))
-                .build();
+        long expireMillis = System.currentTimeMillis() + timeUnit.toMillis(time);
+        byte[] data = value == null ? new byte[0] : cacheCodec.encode(value);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Long.BYTES + data.length);
+        buffer.put(LOGIC_MAGIC).putLong(expireMillis).put(data);
 
         //写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONObject.toJSONString(redisData));
+        setBytes(key, buffer.array(), Expiration.persistent());
+    }
+
+    //按字节读写redis，避免编码结果经过字符串转换
+    private byte[] getBytes(String key){
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void setBytes(String key, byte[] value, Expiration expiration){
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), value,
+                        expiration, RedisStringCommands.SetOption.upsert()));
     }
 
     //查询缓存数据，解决缓存穿透问题
     public <R,ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback,Long time, TimeUnit timeUnit)
     {
         String key = keyPrefix + id;
+        cacheMetrics.recordAccess(key);
+        //查询本地缓存
+        Object local = getLocal(key);
+        if(local != null){
+            return localHit(keyPrefix, CacheMetrics.PASS_THROUGH, local, type);
+        }
         //从redis中查询缓存
-        String jsonString = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = readable(getBytes(key));
         //判断缓存是否存在
-        if(!StrUtil.isBlank(jsonString)){
-            return JSONObject.parseObject(jsonString, type);
+        if(bytes != null && bytes.length > 0){
+            R r = decode(bytes, type);
+            l2Hit(keyPrefix, CacheMetrics.PASS_THROUGH, r);
+            putLocal(key, r, time, timeUnit);
+            return r;
         }
-        //判断命中jsonString为""
-        if(jsonString!=null){
+        //判断命中空值""
+        if(bytes != null){
+            l2Hit(keyPrefix, CacheMetrics.PASS_THROUGH, null);
+            putLocal(key, null, time, timeUnit);
+            return null;
+        }
+        l2Miss(keyPrefix, CacheMetrics.PASS_THROUGH);
+        if(definitelyAbsent(keyPrefix, id)){
             return null;
         }
         //如果缓存不存在，则查询数据库
-        R r = dbFallback.apply(id);
+        R r = load(keyPrefix, CacheMetrics.PASS_THROUGH, () -> dbFallback.apply(id));
         //判断数据库是否存在
         if(r == null){
             stringRedisTemplate.opsForValue().set(key,"",
                     RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(key, null, time, timeUnit);
             return null;
         }
         //如果数据库存在，则将数据写入缓存,并设置有效期
         this.set(key, r, time, timeUnit);
+        putLocal(key, r, time, timeUnit);
+        return r;
+    }
+
+    /**
+     * 批量查询缓存数据，空值语义与queryWithPassThrough一致
+     * 本地缓存未命中的key一次MGET，redis未命中的ID一次查询数据库，回填redis使用一次pipeline
+     * @param dbFallback 按ID列表批量查询数据库，返回结果的顺序任意
+     * @param idGetter 从查询结果中取出ID
+     * @return 与ids顺序一致的结果，不存在的ID对应null
+     */
+    public <R,ID> List<R> queryBatchByIds(String keyPrefix, List<ID> ids, Class<R> type,
+                                          Function<List<ID>, List<R>> dbFallback, Function<R, ID> idGetter,
+                                          Long time, TimeUnit timeUnit){
+        //ID -> 查询结果，NULL_VALUE表示不存在
+        Map<ID, Object> found = new HashMap<>();
+        List<ID> redisIds = new ArrayList<>();
+        Set<ID> seen = new HashSet<>();
+        for(ID id : ids){
+            //重复的ID只查询一次
+            if(!seen.add(id)){
+                continue;
+            }
+            cacheMetrics.recordAccess(keyPrefix + id);
+            //查询本地缓存
+            Object local = getLocal(keyPrefix + id);
+            if(local != null){
+                localHit(keyPrefix, CacheMetrics.BATCH, local, type);
+                found.put(id, local);
+            }else{
+                redisIds.add(id);
+            }
+        }
+        List<ID> missIds = new ArrayList<>();
+        if(!redisIds.isEmpty()){
+            //一次MGET查询redis
+            byte[][] keys = redisIds.stream()
+                    .map(id -> (keyPrefix + id).getBytes(StandardCharsets.UTF_8))
+                    .toArray(byte[][]::new);
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.stringCommands().mGet(keys));
+            for(int i = 0; i < redisIds.size(); i++){
+                ID id = redisIds.get(i);
+                byte[] bytes = values == null ? null : readable(values.get(i));
+                if(bytes == null){
+                    l2Miss(keyPrefix, CacheMetrics.BATCH);
+                    missIds.add(id);
+                    continue;
+                }
+                //判断命中空值""
+                R r = bytes.length == 0 ? null : decode(bytes, type);
+                l2Hit(keyPrefix, CacheMetrics.BATCH, r);
+                putLocal(keyPrefix + id, r, time, timeUnit);
+                found.put(id, r == null ? NULL_VALUE : r);
+            }
+        }
+        //redis未命中的ID一次查询布隆过滤器，一定不存在的ID不查询数据库也不回填
+        List<ID> dbIds = missIds.isEmpty() ? missIds : filterAbsent(keyPrefix, missIds);
+        if(dbIds.size() < missIds.size()){
+            Set<ID> mightExist = new HashSet<>(dbIds);
+            missIds.stream().filter(id -> !mightExist.contains(id)).forEach(id -> found.put(id, NULL_VALUE));
+        }
+        if(!dbIds.isEmpty()){
+            //未命中的ID一次查询数据库
+            for(R r : load(keyPrefix, CacheMetrics.BATCH, () -> dbFallback.apply(dbIds))){
+                found.put(idGetter.apply(r), r);
+            }
+            //不存在的ID写入空值，一次pipeline回填
+            Expiration valueExpiration = Expiration.from(time, timeUnit);
+            Expiration nullExpiration = Expiration.from(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for(ID id : dbIds){
+                    Object value = found.get(id);
+                    byte[] key = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                    if(value == null){
+                        connection.stringCommands().set(key, new byte[0], nullExpiration, RedisStringCommands.SetOption.upsert());
+                    }else{
+                        connection.stringCommands().set(key, cacheCodec.encode(value), valueExpiration, RedisStringCommands.SetOption.upsert());
+                    }
+                }
+                return null;
+            });
+            for(ID id : dbIds){
+                Object value = found.get(id);
+                putLocal(keyPrefix + id, value, time, timeUnit);
+                if(value == null){
+                    found.put(id, NULL_VALUE);
+                }
+            }
+        }
+        //按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for(ID id : ids){
+            Object value = found.get(id);
+            result.add(value == NULL_VALUE ? null : type.cast(value));
+        }
+        return result;
+    }
+
+    //概率提前过期（XFetch）解决缓存击穿问题
+    //缓存中保存过期时间和上次重建耗时，越接近过期越可能由某个请求提前重建，不需要分布式锁
+    public <R,ID> R queryWithEarlyExpiration(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit timeUnit){
+        String key = keyPrefix + id;
+        cacheMetrics.recordAccess(key);
+        //查询本地缓存
+        Object local = getLocal(key);
+        if(local != null){
+            return localHit(keyPrefix, CacheMetrics.EARLY_EXPIRE, local, type);
+        }
+        //从redis中查询缓存
+        byte[] bytes = readable(getBytes(key));
+        //判断命中空值""
+        if(bytes != null && bytes.length == 0){
+            l2Hit(keyPrefix, CacheMetrics.EARLY_EXPIRE, null);
+            putLocal(key, null, time, timeUnit);
+            return null;
+        }
+        if(bytes != null && bytes[0] == EARLY_MAGIC){
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.get();
+            long expireMillis = buffer.getLong();
+            long deltaMillis = buffer.getLong();
+            long now = System.currentTimeMillis();
+            //now - delta * beta * ln(rand) >= expire 时提前重建，rand取(0,1]
+            double gap = -deltaMillis * xfetchBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+            if(now + gap < expireMillis){
+                R r = cacheCodec.decode(Arrays.copyOfRange(bytes, buffer.position(), bytes.length), type);
+                l2Hit(keyPrefix, CacheMetrics.EARLY_EXPIRE, r);
+                //本地缓存不超过redis中的剩余时间
+                putLocal(key, r, expireMillis - now, TimeUnit.MILLISECONDS);
+                return r;
+            }
+        }else if(bytes != null && bytes[0] != LOGIC_MAGIC){
+            //其他方式写入的普通缓存（例如启动预热），按命中处理，到期后以新格式重建
+            R r = cacheCodec.decode(bytes, type);
+            l2Hit(keyPrefix, CacheMetrics.EARLY_EXPIRE, r);
+            putLocal(key, r, time, timeUnit);
+            return r;
+        }
+        l2Miss(keyPrefix, CacheMetrics.EARLY_EXPIRE);
+        //缓存不存在时先经过布隆过滤器，提前过期的缓存说明数据存在
+        if(bytes == null && definitelyAbsent(keyPrefix, id)){
+            return null;
+        }
+        //缓存不存在或提前过期，查询数据库并记录耗时
+        long begin = System.currentTimeMillis();
+        R r = load(keyPrefix, CacheMetrics.EARLY_EXPIRE, () -> dbFallback.apply(id));
+        long deltaMillis = System.currentTimeMillis() - begin;
+        if(r == null){
+            stringRedisTemplate.opsForValue().set(key,"",
+                    RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(key, null, time, timeUnit);
+            return null;
+        }
+        byte[] data = cacheCodec.encode(r);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Long.BYTES * 2 + data.length);
+        buffer.put(EARLY_MAGIC).putLong(System.currentTimeMillis() + timeUnit.toMillis(time)).putLong(deltaMillis).put(data);
+        setBytes(key, buffer.array(), Expiration.from(time, timeUnit));
+        putLocal(key, r, time, timeUnit);
         return r;
     }
 
@@ -80,65 +502,99 @@ public class CacheClient {
         stringRedisTemplate.delete(key);
     }
 
-    //开辟线程池
-    private ExecutorService CACHE_REBUILD_EXCUTOR = Executors.newFixedThreadPool(10);
-    //逻辑过期时间解决缓存穿透问题
+    //逻辑过期时间解决缓存击穿问题
+    //访问过的key按热度在过期前提前重建，已过期的key提交到有界优先级队列异步重建
     public <R,ID> R queryByIdWithLogicExpire(String keyPrefix,String lockKeyPrefix, ID id, Class<R> type,Function<ID,R> dbFallback,Long time
             , TimeUnit timeUnit) {
         String key = keyPrefix + id;
+        cacheMetrics.recordAccess(key);
         RedisObjectData box = new RedisObjectData();
         //从redis中查询缓存
-        if(nullShopIdCheckWithExpire(key,box)){
+        boolean fresh = nullShopIdCheckWithExpire(key,box,type);
+        if(box.getExpireTime() == null){
+            //缓存不存在
+            cacheMetrics.recordLookup(keyPrefix, CacheMetrics.LOGIC_EXPIRE, CacheMetrics.MISS);
             return dealData(box,type);
         }
-        //获取锁
         String lockKey = lockKeyPrefix + id;
-        boolean isLock = tryLock(lockKey);
-        if(isLock){
+        LongSupplier rebuild = () -> rebuildWithLogicExpire(keyPrefix, key, lockKey, id, type, dbFallback, time, timeUnit);
+        //记录访问热度，热点key会在过期前被提前重建
+        cacheRefresher.recordAccess(key, toEpochMilli(box.getExpireTime()), rebuild);
+        cacheMetrics.recordLookup(keyPrefix, CacheMetrics.LOGIC_EXPIRE, fresh ? CacheMetrics.HIT : CacheMetrics.STALE);
+        if(!fresh){
+            //已过期，提交重建
+            cacheRefresher.submit(key, rebuild);
+        }
+        //返回商铺信息，已过期时返回旧数据
+        return dealData(box,type);
+    }
 
-            //获取锁成功,开辟新线程处理数据重建
-            CACHE_REBUILD_EXCUTOR.submit(() -> {
-                try {
-                    //判断缓存是否过期
-                    //Double-Check
-                    if(nullShopIdCheckWithExpire(key,box)){
-                        return;
-                    }
-                    //获取店铺信息
-                    R apply = dbFallback.apply(id);
-                    //Thread.sleep(100);//模拟数据重建时间
-                    //封装,并写入redis
-                    this.setWithLogicExpire(key,apply,time,timeUnit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    //释放锁
-                    unlock(lockKey);
-                }
-            });
+    //重建逻辑过期缓存，返回新的逻辑过期时间，0表示其他节点正在重建，-1表示缓存已不存在
+    private <R,ID> long rebuildWithLogicExpire(String keyPrefix,String key,String lockKey, ID id, Class<R> type,Function<ID,R> dbFallback,Long time
+            , TimeUnit timeUnit){
+        //获取锁
+        if(!tryLock(lockKey)){
+            cacheMetrics.recordLockContention(keyPrefix, CacheMetrics.LOGIC_EXPIRE);
+            return 0L;
         }
-        //返回过期商铺信息
-        R r = dealData(box,type);
-        return r;
+        try {
+            //Double-Check，其他节点可能已经重建
+            RedisObjectData box = new RedisObjectData();
+            nullShopIdCheckWithExpire(key,box,type);
+            if(box.getExpireTime() == null){
+                return -1L;
+            }
+            long expireMillis = toEpochMilli(box.getExpireTime());
+            if(!cacheRefresher.isDue(expireMillis)){
+                return expireMillis;
+            }
+            //获取店铺信息，封装并写入redis
+            R apply = load(keyPrefix, CacheMetrics.LOGIC_EXPIRE, () -> dbFallback.apply(id));
+            this.setWithLogicExpire(key,apply,time,timeUnit);
+            return System.currentTimeMillis() + timeUnit.toMillis(time);
+        } finally {
+            //释放锁
+            unlock(lockKey);
+        }
+    }
 
+    private static long toEpochMilli(LocalDateTime time){
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 
 
-    private<R> boolean nullShopIdCheckWithExpire(String key,RedisObjectData r){
+    private<R> boolean nullShopIdCheckWithExpire(String key,RedisObjectData r,Class<R> type){
         //从redis中查询缓存
-        String jsonString = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
 
         //判断缓存是否存在
-        if(StrUtil.isBlank(jsonString)){
+        if(bytes == null || bytes.length == 0){
             r.setData(null);
+            r.setExpireTime(null);
             return true;
         }
 
-        //fastjson转化
-        RedisObjectData redisObjectData = JSONObject.parseObject(jsonString, RedisObjectData.class);
-
-        LocalDateTime expireTime = redisObjectData.getExpireTime();
-        BeanUtils.copyProperties(redisObjectData,r);
+        LocalDateTime expireTime;
+        if(bytes[0] == LOGIC_MAGIC){
+            //直接解码为目标类型，只解析一次
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.get();
+            long expireMillis = buffer.getLong();
+            byte[] data = Arrays.copyOfRange(bytes, buffer.position(), bytes.length);
+            if(data.length > 0 && !cacheCodec.canDecode(data)){
+                //编码格式无法识别，按已过期处理，由调用方提交重建
+                expireMillis = 0L;
+                data = new byte[0];
+            }
+            r.setData(data.length == 0 ? null : cacheCodec.decode(data, type));
+            expireTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault());
+        }else{
+            //兼容旧的json格式
+            JSONObject json = JSONObject.parseObject(new String(bytes, StandardCharsets.UTF_8));
+            r.setData(json.getObject("data", type));
+            expireTime = json.getObject("expireTime", LocalDateTime.class);
+        }
+        r.setExpireTime(expireTime);
         //判断缓存释放过期
         if(expireTime.isAfter(LocalDateTime.now())){
             return true; //缓存未过期，直接返回
@@ -149,71 +605,127 @@ public class CacheClient {
     }
 
     private<R> R dealData(RedisObjectData box,Class<R> type){
-        String jsonString = JSONObject.toJSONString(box.getData());
-        if(StrUtil.isBlank(jsonString)){
-            return null;
-        }
-        return JSONObject.parseObject(jsonString,type);
+        return type.cast(box.getData());
     }
 
 
     //互斥锁解决缓存击穿问题
+    //本节点内同一个key的并发未命中共享一次重建（single-flight），redis互斥锁只用于跨节点互斥
     public<R,ID> R queryByIdWithMutex(String keyPrefix,String lockKeyPrefix, ID id, Class<R> type,Function<ID,R> dbFallback,Long time
             , TimeUnit timeUnit){
 
         String key = keyPrefix + id;
+        cacheMetrics.recordAccess(key);
+        //查询本地缓存
+        Object local = getLocal(key);
+        if(local != null){
+            return localHit(keyPrefix, CacheMetrics.MUTEX, local, type);
+        }
+        RedisObjectData box = new RedisObjectData();
+        if(nullShopIdCheck(key,box,type)){
+            R r = dealData(box,type);
+            l2Hit(keyPrefix, CacheMetrics.MUTEX, r);
+            putLocal(key, r, time, timeUnit);
+            return r;
+        }
+        if(definitelyAbsent(keyPrefix, id)){
+            l2Miss(keyPrefix, CacheMetrics.MUTEX);
+            return null;
+        }
+        //缓存未命中，本节点只有一个线程负责重建，其他线程等待同一个结果
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightRebuilds.putIfAbsent(key, future);
+        if(inFlight != null){
+            Object value = inFlight.join();
+            return value == NULL_VALUE ? null : type.cast(value);
+        }
         try {
-            //缓存不存在，尝试获取分布式锁
-            String lockKey = lockKeyPrefix + id;
-            RedisObjectData box = new RedisObjectData();
-            do{
-                if(nullShopIdCheck(key,box)){
-                    return dealData(box,type);
-                };
-                Thread.sleep(50);
-            }while(!tryLock(lockKey));
-
-            //Double-Check
-            if(nullShopIdCheck(key,box)){
-                return dealData(box,type);
-            }
-            //如果缓存不存在，则查询数据库
-            R r = dbFallback.apply(id);
-
-            //Thread.sleep(200); //模拟查询数据库耗时
-
-            //判断数据库是否存在
-            if(r == null){
-                stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY+id,"",
-                        RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-            //如果数据库存在，则将数据写入缓存,并设置有效期
-            set(key, r, time, timeUnit);
+            R r = rebuildWithMutex(keyPrefix, key, lockKeyPrefix + id, id, type, dbFallback, time, timeUnit);
+            future.complete(r == null ? NULL_VALUE : r);
             return r;
-
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            //释放锁
-            unlock(RedisConstants.LOCK_SHOP_KEY+id);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRebuilds.remove(key, future);
         }
+    }
 
-
-
+    private<R,ID> R rebuildWithMutex(String keyPrefix,String key,String lockKey, ID id, Class<R> type,Function<ID,R> dbFallback,Long time
+            , TimeUnit timeUnit){
+        RedisObjectData box = new RedisObjectData();
+        while(true){
+            //尝试获取分布式锁
+            if(tryLock(lockKey)){
+                try {
+                    //Double-Check
+                    if(nullShopIdCheck(key,box,type)){
+                        R r = dealData(box,type);
+                        l2Hit(keyPrefix, CacheMetrics.MUTEX, r);
+                        putLocal(key, r, time, timeUnit);
+                        return r;
+                    }
+                    l2Miss(keyPrefix, CacheMetrics.MUTEX);
+                    //如果缓存不存在，则查询数据库
+                    R r = load(keyPrefix, CacheMetrics.MUTEX, () -> dbFallback.apply(id));
+                    //判断数据库是否存在
+                    if(r == null){
+                        stringRedisTemplate.opsForValue().set(key,"",
+                                RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                        putLocal(key, null, time, timeUnit);
+                        return null;
+                    }
+                    //如果数据库存在，则将数据写入缓存,并设置有效期
+                    set(key, r, time, timeUnit);
+                    putLocal(key, r, time, timeUnit);
+                    return r;
+                } finally {
+                    //释放锁，并通知其他节点重建完成
+                    unlock(lockKey);
+                    stringRedisTemplate.convertAndSend(RedisConstants.CACHE_REBUILT_CHANNEL, key);
+                }
+            }
+            //其他节点正在重建，等待重建完成的通知
+            cacheMetrics.recordLockContention(keyPrefix, CacheMetrics.MUTEX);
+            CompletableFuture<Void> waiter = rebuildWaiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+            try {
+                //注册等待后再检查一次，避免错过通知
+                if(nullShopIdCheck(key,box,type)){
+                    R r = dealData(box,type);
+                    l2Hit(keyPrefix, CacheMetrics.MUTEX, r);
+                    putLocal(key, r, time, timeUnit);
+                    return r;
+                }
+                waiter.get(REBUILD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                //未收到通知，重新检查缓存并尝试获取锁
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e);
+            } finally {
+                rebuildWaiters.remove(key, waiter);
+            }
+            if(nullShopIdCheck(key,box,type)){
+                R r = dealData(box,type);
+                l2Hit(keyPrefix, CacheMetrics.MUTEX, r);
+                putLocal(key, r, time, timeUnit);
+                return r;
+            }
+        }
     }
 
-    private<R> boolean nullShopIdCheck(String key,RedisObjectData box){
+    private<R> boolean nullShopIdCheck(String key,RedisObjectData box,Class<R> type){
         //从redis中查询缓存
-        String jsonString = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = readable(getBytes(key));
         //判断缓存是否存在
-        if(!StrUtil.isBlank(jsonString)){
-            Shop shop = JSONObject.parseObject(jsonString, Shop.class);
-            box.setData(shop);
+        if(bytes != null && bytes.length > 0){
+            box.setData(decode(bytes, type));
             return true;
         }
-        //判断命中jsonString为""
-        if(jsonString!=null){
+        //判断命中空值""
+        if(bytes != null){
             box.setData(null);
             return true;
         }
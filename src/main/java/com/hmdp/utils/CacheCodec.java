@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值编解码器，CacheClient通过它读写redis中的缓存值
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码缓存值
+     * @param value 缓存对象，不为null
+     * @return 写入redis的字节
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码缓存值
+     * @param bytes redis中读取的字节，不为空
+     * @param type 目标类型
+     * @return 缓存对象
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 是否能解码该格式，不能解码的缓存（例如其他版本写入的）按未命中处理
+     * @param bytes redis中读取的字节，不为空
+     */
+    default boolean canDecode(byte[] bytes) {
+        return true;
+    }
+}
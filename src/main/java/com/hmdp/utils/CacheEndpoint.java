@@ -0,0 +1,31 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * actuator端点 /actuator/cache：各级缓存命中统计和热点key
+ */
+@Component
+@Endpoint(id = "cache")
+public class CacheEndpoint {
+    private final CacheClient cacheClient;
+    private final CacheMetrics cacheMetrics;
+
+    public CacheEndpoint(CacheClient cacheClient, CacheMetrics cacheMetrics) {
+        this.cacheClient = cacheClient;
+        this.cacheMetrics = cacheMetrics;
+    }
+
+    @ReadOperation
+    public Map<String, Object> cache(){
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("stats", cacheClient.getStats());
+        result.put("hotKeys", cacheMetrics.hotKeys());
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存指标：按key前缀和查询策略统计查询结果、重建耗时和锁竞争，并抽样统计热点key
+ */
+@Component
+public class CacheMetrics {
+    //查询策略
+    public static final String PASS_THROUGH = "pass-through";
+    public static final String MUTEX = "mutex";
+    public static final String LOGIC_EXPIRE = "logic-expire";
+    public static final String EARLY_EXPIRE = "early-expire";
+    public static final String BATCH = "batch";
+    //查询结果：本地缓存命中、redis命中、命中已逻辑过期的数据、命中空值、未命中
+    public static final String L1_HIT = "l1-hit";
+    public static final String HIT = "hit";
+    public static final String STALE = "stale";
+    public static final String NULL = "null";
+    public static final String MISS = "miss";
+
+    private final MeterRegistry meterRegistry;
+    private final HotKeySketch hotKeySketch;
+    //热点key的抽样比例
+    private final double sampleRate;
+    //已注册的指标，避免每次查询都到registry中查找
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry,
+                        @Value("${hmdp.cache.metrics.hot-key-sample-rate:0.1}") double sampleRate,
+                        @Value("${hmdp.cache.metrics.hot-key-top-k:20}") int topK) {
+        this.meterRegistry = meterRegistry;
+        this.sampleRate = sampleRate;
+        this.hotKeySketch = new HotKeySketch(4096, topK);
+    }
+
+    //记录一次查询的结果
+    public void recordLookup(String keyPrefix, String strategy, String result){
+        counters.computeIfAbsent(keyPrefix + "|" + strategy + "|" + result, k -> Counter.builder("cache.lookups")
+                .tag("prefix", keyPrefix).tag("strategy", strategy).tag("result", result)
+                .register(meterRegistry)).increment();
+    }
+
+    //记录一次回源重建的耗时
+    public void recordRebuild(String keyPrefix, String strategy, long nanos){
+        timers.computeIfAbsent(keyPrefix + "|" + strategy, k -> Timer.builder("cache.rebuild")
+                .tag("prefix", keyPrefix).tag("strategy", strategy)
+                .register(meterRegistry)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    //记录一次获取重建锁失败
+    public void recordLockContention(String keyPrefix, String strategy){
+        counters.computeIfAbsent(keyPrefix + "|" + strategy + "|lock", k -> Counter.builder("cache.lock.contention")
+                .tag("prefix", keyPrefix).tag("strategy", strategy)
+                .register(meterRegistry)).increment();
+    }
+
+    //按抽样比例记录key的访问
+    public void recordAccess(String key){
+        if(ThreadLocalRandom.current().nextDouble() < sampleRate){
+            hotKeySketch.add(key);
+        }
+    }
+
+    //热点key及抽样后的估算访问次数
+    public Map<String, Long> hotKeys(){
+        return hotKeySketch.top();
+    }
+}
@@ -0,0 +1,185 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 基于outbox表的缓存失效：数据变更时在同一事务中写入tb_cache_outbox，
+ * 事务提交后由本类批量删除缓存并刷新GEO，延迟一段时间后再删除一次，处理完成后删除记录
+ * 每个阶段完成后才更新记录，失败或宕机时记录会被重新处理，删除缓存是幂等的
+ */
+@Slf4j
+@Component
+public class CacheOutboxPoller {
+    public static final String ENTITY_SHOP = "shop";
+    //处理阶段：待删除缓存、待延迟二次删除
+    private static final int PHASE_DELETE = 0;
+    private static final int PHASE_DOUBLE_DELETE = 1;
+
+    private final CacheOutboxMapper cacheOutboxMapper;
+    private final ShopMapper shopMapper;
+    private final ShopTypeMapper shopTypeMapper;
+    private final CacheClient cacheClient;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.cache.outbox.poll-interval-millis:500}")
+    private long pollIntervalMillis;
+    @Value("${hmdp.cache.outbox.batch-size:100}")
+    private int batchSize;
+    //第一次删除后多久进行第二次删除，应大于一次读库并回写缓存的耗时
+    @Value("${hmdp.cache.outbox.double-delete-delay-millis:1000}")
+    private long doubleDeleteDelayMillis;
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-outbox-poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CacheOutboxPoller(CacheOutboxMapper cacheOutboxMapper, ShopMapper shopMapper, ShopTypeMapper shopTypeMapper,
+                             CacheClient cacheClient, StringRedisTemplate stringRedisTemplate) {
+        this.cacheOutboxMapper = cacheOutboxMapper;
+        this.shopMapper = shopMapper;
+        this.shopTypeMapper = shopTypeMapper;
+        this.cacheClient = cacheClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @PostConstruct
+    private void init(){
+        poller.scheduleWithFixedDelay(this::poll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        poller.shutdownNow();
+    }
+
+    /**
+     * 记录一次数据变更，需要在数据变更的事务中调用，事务提交后立即处理
+     * @param entityType 数据类型
+     * @param entityId 数据id
+     */
+    public void record(String entityType, Long entityId){
+        CacheOutbox outbox = new CacheOutbox()
+                .setEntityType(entityType)
+                .setEntityId(entityId)
+                .setPhase(PHASE_DELETE)
+                .setNextTime(LocalDateTime.now());
+        cacheOutboxMapper.insert(outbox);
+        if(TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    poller.execute(CacheOutboxPoller.this::poll);
+                }
+            });
+        }
+    }
+
+    private void poll(){
+        try {
+            while(true){
+                List<CacheOutbox> records = cacheOutboxMapper.selectList(new QueryWrapper<CacheOutbox>()
+                        .le("next_time", LocalDateTime.now())
+                        .orderByAsc("id")
+                        .last("LIMIT " + batchSize));
+                if(records.isEmpty()){
+                    return;
+                }
+                handle(records);
+                if(records.size() < batchSize){
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            //记录未更新，下次轮询重试
+            log.error("处理缓存失效记录异常", e);
+        }
+    }
+
+    private void handle(List<CacheOutbox> records){
+        List<Long> firstIds = new ArrayList<>();
+        List<Long> secondIds = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        Set<Long> changedShops = records.stream()
+                .filter(r -> ENTITY_SHOP.equals(r.getEntityType()) && r.getPhase() == PHASE_DELETE)
+                .map(CacheOutbox::getEntityId)
+                .collect(Collectors.toSet());
+        for(CacheOutbox record : records){
+            if(ENTITY_SHOP.equals(record.getEntityType())){
+                keys.add(RedisConstants.CACHE_SHOP_KEY + record.getEntityId());
+            }
+            (record.getPhase() == PHASE_DELETE ? firstIds : secondIds).add(record.getId());
+        }
+        //批量删除缓存，通知所有节点清除本地缓存
+        cacheClient.deleteBatch(keys.stream().distinct().collect(Collectors.toList()));
+        if(!changedShops.isEmpty()){
+            refreshGeo(changedShops);
+        }
+        //第一次删除完成，等待延迟二次删除
+        if(!firstIds.isEmpty()){
+            cacheOutboxMapper.update(null, new UpdateWrapper<CacheOutbox>()
+                    .set("phase", PHASE_DOUBLE_DELETE)
+                    .set("next_time", LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(doubleDeleteDelayMillis)))
+                    .in("id", firstIds));
+        }
+        //第二次删除完成，删除记录
+        if(!secondIds.isEmpty()){
+            cacheOutboxMapper.deleteByIds(secondIds);
+        }
+    }
+
+    //商铺可能修改了类型或坐标，从所有类型的GEO中移除后按最新数据重新加入，已删除的商铺只移除
+    private void refreshGeo(Set<Long> shopIds){
+        List<Shop> shops = shopMapper.selectBatchIds(shopIds);
+        List<Long> typeIds = shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"))
+                .stream().map(ShopType::getId).collect(Collectors.toList());
+        byte[][] members = shopIds.stream()
+                .map(id -> id.toString().getBytes(StandardCharsets.UTF_8))
+                .toArray(byte[][]::new);
+        Map<Long, List<Shop>> shopsByType = shops.stream()
+                .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for(Long typeId : typeIds){
+                connection.zSetCommands().zRem((RedisConstants.SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8), members);
+            }
+            shopsByType.forEach((typeId, list) -> {
+                byte[] key = (RedisConstants.SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8);
+                for(Shop shop : list){
+                    connection.geoCommands().geoAdd(key, new Point(shop.getX(), shop.getY()),
+                            shop.getId().toString().getBytes(StandardCharsets.UTF_8));
+                }
+            });
+            return null;
+        });
+    }
+}
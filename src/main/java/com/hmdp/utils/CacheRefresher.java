@@ -0,0 +1,212 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 逻辑过期缓存的提前刷新：统计每个key的访问热度，热点key在逻辑过期前主动重建，
+ * 重建任务进入有界的优先级队列，越热的key越先重建，队列满时丢弃
+ */
+@Slf4j
+@Component
+public class CacheRefresher {
+    //扫描热点key的间隔
+    private static final long SCAN_INTERVAL_MILLIS = 1000L;
+
+    @Value("${hmdp.cache.refresh.threads:4}")
+    private int threads;
+    @Value("${hmdp.cache.refresh.queue-capacity:1000}")
+    private int queueCapacity;
+    //距离逻辑过期多少秒内开始提前重建
+    @Value("${hmdp.cache.refresh.ahead-seconds:10}")
+    private long aheadSeconds;
+    //热度达到该值的key才会提前重建，热度每次扫描衰减一半
+    @Value("${hmdp.cache.refresh.hot-threshold:5}")
+    private double hotThreshold;
+    @Value("${hmdp.cache.refresh.max-tracked-keys:10000}")
+    private long maxTrackedKeys;
+
+    //被访问过的key -> 热度和重建方法，长时间未访问的key自动淘汰
+    private Cache<String, HotKey> hotKeys;
+    //已在队列中或正在重建的key，避免重复提交
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    //排队和正在重建的任务数上限，提交前获取，任务结束时释放
+    private Semaphore permits;
+    private ThreadPoolExecutor rebuildExecutor;
+    private ScheduledExecutorService scanner;
+    private final LongAdder rebuilt = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    @PostConstruct
+    private void init(){
+        hotKeys = Caffeine.newBuilder()
+                .maximumSize(maxTrackedKeys)
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build();
+        permits = new Semaphore(queueCapacity + threads);
+        rebuildExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), daemonThreads("cache-rebuild"));
+        scanner = Executors.newSingleThreadScheduledExecutor(daemonThreads("cache-refresh-scanner"));
+        scanner.scheduleWithFixedDelay(this::scan, SCAN_INTERVAL_MILLIS, SCAN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        scanner.shutdownNow();
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * 记录一次访问
+     * @param key 缓存key
+     * @param expireMillis 当前的逻辑过期时间
+     * @param rebuild 重建方法，返回重建后的逻辑过期时间，0表示未重建，负数表示缓存已不存在
+     */
+    public void recordAccess(String key, long expireMillis, LongSupplier rebuild){
+        HotKey hotKey = hotKeys.get(key, k -> new HotKey(rebuild));
+        hotKey.hits.increment();
+        hotKey.expireMillis = expireMillis;
+    }
+
+    //提交已过期key的重建，优先级为当前热度，返回false表示已在重建或队列已满
+    public boolean submit(String key, LongSupplier rebuild){
+        HotKey hotKey = hotKeys.getIfPresent(key);
+        double priority = hotKey == null ? 0 : hotKey.score + hotKey.hits.sum();
+        return enqueue(key, priority, rebuild);
+    }
+
+    //缓存被删除后不再提前重建
+    public void forget(String key){
+        hotKeys.invalidate(key);
+    }
+
+    //距离逻辑过期时间是否已进入提前刷新窗口
+    public boolean isDue(long expireMillis){
+        return expireMillis - System.currentTimeMillis() <= TimeUnit.SECONDS.toMillis(aheadSeconds);
+    }
+
+    public long getRebuiltCount(){
+        return rebuilt.sum();
+    }
+
+    public long getDroppedCount(){
+        return dropped.sum();
+    }
+
+    public int getQueueSize(){
+        return rebuildExecutor.getQueue().size();
+    }
+
+    private void scan(){
+        try {
+            hotKeys.asMap().forEach((key, hotKey) -> {
+                hotKey.score = hotKey.score / 2 + hotKey.hits.sumThenReset();
+                if(hotKey.score >= hotThreshold && isDue(hotKey.expireMillis)){
+                    enqueue(key, hotKey.score, hotKey.rebuild);
+                }
+            });
+        } catch (Exception e) {
+            log.error("扫描热点key异常", e);
+        }
+    }
+
+    private boolean enqueue(String key, double priority, LongSupplier rebuild){
+        if(!pending.add(key)){
+            return false;
+        }
+        //队列满时丢弃，已过期的key仍返回旧数据，下次访问会再次提交
+        if(!permits.tryAcquire()){
+            pending.remove(key);
+            dropped.increment();
+            return false;
+        }
+        try {
+            rebuildExecutor.execute(new RebuildTask(key, priority, rebuild));
+            return true;
+        } catch (RejectedExecutionException e) {
+            //已关闭
+            permits.release();
+            pending.remove(key);
+            return false;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name){
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class HotKey {
+        private final LongSupplier rebuild;
+        private final LongAdder hits = new LongAdder();
+        //衰减后的热度，只在扫描线程中更新
+        private volatile double score;
+        private volatile long expireMillis;
+
+        HotKey(LongSupplier rebuild) {
+            this.rebuild = rebuild;
+        }
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String key;
+        private final double priority;
+        private final LongSupplier rebuild;
+
+        RebuildTask(String key, double priority, LongSupplier rebuild) {
+            this.key = key;
+            this.priority = priority;
+            this.rebuild = rebuild;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long expireMillis = rebuild.getAsLong();
+                if(expireMillis < 0){
+                    forget(key);
+                }else if(expireMillis > 0){
+                    rebuilt.increment();
+                    HotKey hotKey = hotKeys.getIfPresent(key);
+                    if(hotKey != null){
+                        hotKey.expireMillis = expireMillis;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("缓存重建异常: {}", key, e);
+            } finally {
+                pending.remove(key);
+                permits.release();
+            }
+        }
+
+        //热度高的先执行
+        @Override
+        public int compareTo(RebuildTask other) {
+            return Double.compare(other.priority, priority);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson.JSONObject;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动时预热商铺缓存、商铺地理位置和商铺类型缓存
+ * 在ApplicationRunner中同步执行，预热完成后spring才会发布ReadinessState.ACCEPTING_TRAFFIC
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ShopMapper shopMapper;
+    private final ShopTypeMapper shopTypeMapper;
+    private final CacheCodec cacheCodec;
+
+    @Value("${hmdp.warmup.enabled:true}")
+    private boolean enabled;
+    //每次从数据库读取的商铺数量
+    @Value("${hmdp.warmup.batch-size:500}")
+    private int batchSize;
+    //每秒最多查询数据库的次数
+    @Value("${hmdp.warmup.db-qps:20}")
+    private int dbQps;
+    //预热的商铺缓存过期时间随机增加的最大比例，避免同一时间预热的key同时过期
+    @Value("${hmdp.warmup.ttl-jitter:0.2}")
+    private double ttlJitter;
+
+    //预热进度
+    private volatile long warmedShops;
+    private volatile boolean finished;
+
+    public CacheWarmer(StringRedisTemplate stringRedisTemplate, ShopMapper shopMapper,
+                       ShopTypeMapper shopTypeMapper, CacheCodec cacheCodec) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.shopMapper = shopMapper;
+        this.shopTypeMapper = shopTypeMapper;
+        this.cacheCodec = cacheCodec;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if(!enabled){
+            finished = true;
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            warmShopTypes();
+            warmShops();
+            log.info("缓存预热完成，商铺数量: {}, 耗时: {}ms", warmedShops, System.currentTimeMillis() - begin);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("缓存预热被中断，已预热商铺数量: {}", warmedShops);
+        } catch (Exception e) {
+            //预热失败不影响启动，未预热的数据在访问时回源加载
+            log.error("缓存预热失败，已预热商铺数量: {}", warmedShops, e);
+        } finally {
+            finished = true;
+        }
+    }
+
+    public long getWarmedShops(){
+        return warmedShops;
+    }
+
+    public boolean isFinished(){
+        return finished;
+    }
+
+    private void warmShopTypes(){
+        List<ShopType> typeList = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
+        if(!typeList.isEmpty()){
+            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_TYPE_KEY, JSONObject.toJSONString(typeList));
+        }
+    }
+
+    //按主键分批读取商铺，每批用一次pipeline写入缓存和GEO
+    private void warmShops() throws InterruptedException {
+        long interval = dbQps > 0 ? 1000L / dbQps : 0L;
+        long lastId = 0L;
+        while(true){
+            long start = System.currentTimeMillis();
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId).orderByAsc("id")
+                    .last("LIMIT " + batchSize));
+            if(shops.isEmpty()){
+                return;
+            }
+            writeBatch(shops);
+            lastId = shops.get(shops.size() - 1).getId();
+            warmedShops += shops.size();
+            log.debug("缓存预热进度，商铺数量: {}, 最大ID: {}", warmedShops, lastId);
+            //限制数据库查询频率
+            long elapsed = System.currentTimeMillis() - start;
+            if(elapsed < interval){
+                Thread.sleep(interval - elapsed);
+            }
+        }
+    }
+
+    private void writeBatch(List<Shop> shops){
+        long ttlMillis = TimeUnit.SECONDS.toMillis(RedisConstants.CACHE_SHOP_TTL);
+        //typeId -> (shopId -> 坐标)
+        Map<Long, Map<byte[], Point>> geo = new HashMap<>();
+        for(Shop shop : shops){
+            if(shop.getTypeId() != null && shop.getX() != null && shop.getY() != null){
+                geo.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                        .put(shop.getId().toString().getBytes(StandardCharsets.UTF_8), new Point(shop.getX(), shop.getY()));
+            }
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for(Shop shop : shops){
+                //每个key的过期时间在 [ttl, ttl*(1+ttlJitter)) 内随机
+                long jitterMillis = (long) (ttlMillis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+                connection.stringCommands().set(
+                        (RedisConstants.CACHE_SHOP_KEY + shop.getId()).getBytes(StandardCharsets.UTF_8),
+                        cacheCodec.encode(shop), Expiration.milliseconds(ttlMillis + jitterMillis),
+                        RedisStringCommands.SetOption.upsert());
+            }
+            geo.forEach((typeId, points) -> connection.geoCommands().geoAdd(
+                    (RedisConstants.SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8), points));
+            return null;
+        });
+    }
+}
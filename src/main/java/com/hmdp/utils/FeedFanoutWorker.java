@@ -0,0 +1,224 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 关注流异步推送：发布博文时只写入stream.feed，由消费者按主键分页读取粉丝，
+ * 每页一次pipeline写入粉丝收件箱并裁剪到最大长度，redis变慢时逐步放慢推送速度
+ * 粉丝数量达到阈值的作者只写入自己的发件箱，由粉丝读取时拉取
+ */
+@Slf4j
+@Component
+public class FeedFanoutWorker {
+    private static final String STREAM_NAME = "stream.feed";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+    private final FollowMapper followMapper;
+    private final MeterRegistry meterRegistry;
+    private final Timer lagTimer;
+    private final Timer pipelineTimer;
+    private final Counter pushedCounter;
+    //当前每页之间的等待时间（毫秒），所有消费者共用
+    private final AtomicLong throttleMillis = new AtomicLong();
+
+    //粉丝数量达到该值的作者不再推送给每个粉丝
+    @Value("${hmdp.feed.big-author-followers:10000}")
+    private long bigAuthorFollowers;
+    //收件箱最大长度，推送时在同一个pipeline中裁剪
+    @Value("${hmdp.feed.inbox.max-length:1000}")
+    private long inboxMaxLength;
+    //大V发件箱最大长度，推送时在同一个pipeline中裁剪
+    @Value("${hmdp.feed.outbox.max-length:1000}")
+    private long outboxMaxLength;
+    @Value("${hmdp.feed.inbox.ttl-days:30}")
+    private long inboxTtlDays;
+    @Value("${hmdp.feed.fanout.consumer-count:2}")
+    private int consumerCount;
+    //每页粉丝数，即一次pipeline写入的收件箱数量
+    @Value("${hmdp.feed.fanout.batch-size:500}")
+    private int batchSize;
+    @Value("${hmdp.feed.fanout.pending-idle:30000}")
+    private long pendingIdleMillis;
+    @Value("${hmdp.feed.fanout.max-deliveries:5}")
+    private int maxDeliveries;
+    //一次pipeline超过该耗时认为redis变慢，加倍等待时间，否则减半
+    @Value("${hmdp.feed.fanout.slow-pipeline-millis:50}")
+    private long slowPipelineMillis;
+    @Value("${hmdp.feed.fanout.max-throttle-millis:1000}")
+    private long maxThrottleMillis;
+
+    //推送消息的消费组，超过最大投递次数的消息转入stream.feed.dlq
+    private StreamConsumerGroup consumerGroup;
+
+    public FeedFanoutWorker(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient,
+                            FollowMapper followMapper, MeterRegistry meterRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.followMapper = followMapper;
+        this.meterRegistry = meterRegistry;
+        //博文发布到推送完成的延迟
+        this.lagTimer = Timer.builder("feed.fanout.lag").register(meterRegistry);
+        this.pipelineTimer = Timer.builder("feed.fanout.pipeline").register(meterRegistry);
+        this.pushedCounter = Counter.builder("feed.fanout.pushed").register(meterRegistry);
+        Gauge.builder("feed.fanout.throttle", throttleMillis, AtomicLong::get).register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void init(){
+        //一条消息可能推送给上万粉丝，每次只读取一条
+        consumerGroup = new StreamConsumerGroup(stringRedisTemplate, redissonClient, STREAM_NAME, this::handleRecords)
+                .consumers(consumerCount)
+                .readCount(1)
+                .pendingIdle(pendingIdleMillis)
+                .maxDeliveries(maxDeliveries)
+                .metrics(meterRegistry);
+        consumerGroup.start();
+    }
+
+    @PreDestroy
+    private void destroy(){
+        consumerGroup.stop();
+    }
+
+    /**
+     * 提交一次推送任务，需要在博文保存成功后调用
+     * @param authorId 作者id
+     * @param blogId 博文id
+     * @param timestamp 发布时间，作为收件箱中的分数
+     */
+    public void publish(Long authorId, Long blogId, long timestamp){
+        Map<String, String> value = new HashMap<>();
+        value.put("authorId", authorId.toString());
+        value.put("blogId", blogId.toString());
+        value.put("ts", String.valueOf(timestamp));
+        //写入时不裁剪，近似MAXLEN可能删除尚未投递的消息，已确认的消息由消费组定时裁剪
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(STREAM_NAME).ofMap(value));
+    }
+
+    //处理推送消息，失败的消息留在pendinglist中由消费组认领重试，ZADD是幂等的
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) throws InterruptedException {
+        for(MapRecord<String, Object, Object> record : records){
+            Map<Object, Object> value = record.getValue();
+            fanout(Long.valueOf(value.get("authorId").toString()), value.get("blogId").toString(),
+                    Long.parseLong(value.get("ts").toString()));
+        }
+    }
+
+    private void fanout(Long authorId, String blogId, long timestamp) throws InterruptedException {
+        Long followers = followMapper.selectCount(new QueryWrapper<Follow>().eq("follow_user_id", authorId));
+        if(followers >= bigAuthorFollowers){
+            //大V只写入自己的发件箱，同一个pipeline中裁剪到最大长度，更早的博文由粉丝读取时从数据库补齐
+            byte[] key = (RedisConstants.FEED_OUTBOX_KEY + authorId).getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.zSetCommands().zAdd(key, timestamp, blogId.getBytes(StandardCharsets.UTF_8));
+                connection.zSetCommands().zRemRange(key, 0, -outboxMaxLength - 1);
+                connection.setCommands().sAdd(RedisConstants.FEED_BIG_AUTHORS_KEY.getBytes(StandardCharsets.UTF_8),
+                        authorId.toString().getBytes(StandardCharsets.UTF_8));
+                return null;
+            });
+        }else{
+            //按主键分页读取粉丝，避免大偏移量的深分页
+            long lastId = 0L;
+            while(true){
+                List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+                        .select("id", "user_id")
+                        .eq("follow_user_id", authorId).gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + batchSize));
+                if(follows.isEmpty()){
+                    break;
+                }
+                pushBatch(follows, blogId, timestamp);
+                if(follows.size() < batchSize){
+                    break;
+                }
+                lastId = follows.get(follows.size() - 1).getId();
+                long throttle = throttleMillis.get();
+                if(throttle > 0){
+                    Thread.sleep(throttle);
+                }
+            }
+        }
+        lagTimer.record(Math.max(0, System.currentTimeMillis() - timestamp), TimeUnit.MILLISECONDS);
+    }
+
+    //一次pipeline写入一页粉丝的收件箱，并按耗时调整推送速度
+    private void pushBatch(List<Follow> follows, String blogId, long timestamp){
+        byte[] member = blogId.getBytes(StandardCharsets.UTF_8);
+        long ttlSeconds = TimeUnit.DAYS.toSeconds(inboxTtlDays);
+        long start = System.nanoTime();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for(Follow follow : follows){
+                byte[] key = (RedisConstants.FEED_KEY + follow.getUserId()).getBytes(StandardCharsets.UTF_8);
+                connection.zSetCommands().zAdd(key, timestamp, member);
+                //只保留最新的inboxMaxLength条
+                connection.zSetCommands().zRemRange(key, 0, -inboxMaxLength - 1);
+                //读取剩余过期时间，-1表示收件箱是本次推送新建的
+                connection.keyCommands().ttl(key);
+            }
+            return null;
+        });
+        long nanos = System.nanoTime() - start;
+        pipelineTimer.record(nanos, TimeUnit.NANOSECONDS);
+        pushedCounter.increment(follows.size());
+        if(TimeUnit.NANOSECONDS.toMillis(nanos) > slowPipelineMillis){
+            throttleMillis.updateAndGet(t -> Math.min(maxThrottleMillis, Math.max(10L, t * 2)));
+        }else{
+            throttleMillis.updateAndGet(t -> t / 2);
+        }
+        initCreatedInboxes(follows, results, ttlSeconds);
+    }
+
+    /**
+     * 没有过期时间说明收件箱是本次推送新建的，之前可能已经过期，缺少更早的博文
+     * 只给新建的收件箱设置过期时间，读取时才续期，长期不读的收件箱会过期；同时写入不完整标记，读取到收件箱末尾时从数据库补齐
+     * 用TTL判断而不是EXPIRE NX，兼容redis 7.0以前的版本，并发推送时重复设置过期时间和标记没有影响
+     * 新建的收件箱很少，额外的pipeline开销可以忽略
+     */
+    private void initCreatedInboxes(List<Follow> follows, List<Object> results, long ttlSeconds){
+        List<Long> created = new ArrayList<>();
+        for (int i = 0; i < follows.size(); i++) {
+            if(results.get(i * 3 + 2) instanceof Long ttl && ttl == -1L){
+                created.add(follows.get(i).getUserId());
+            }
+        }
+        if(created.isEmpty()){
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for(Long userId : created){
+                connection.keyCommands().expire((RedisConstants.FEED_KEY + userId).getBytes(StandardCharsets.UTF_8), ttlSeconds);
+                connection.stringCommands().set((RedisConstants.FEED_PARTIAL_KEY + userId).getBytes(StandardCharsets.UTF_8),
+                        "1".getBytes(StandardCharsets.UTF_8), Expiration.seconds(ttlSeconds), RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+    }
+}
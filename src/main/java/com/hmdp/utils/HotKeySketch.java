@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点key统计：count-min sketch估算每个key的访问次数，另外保留估算次数最高的K个key
+ * 累计一定次数后所有计数减半，使结果偏向最近的访问
+ * 全程无锁：已是候选的key或估算次数不超过候选门槛的key只更新计数，只有新key进入候选时才遍历淘汰最小的候选
+ */
+public class HotKeySketch {
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x5bd1e995, 0x27d4eb2f, 0x165667b1, 0x9e3779b1};
+
+    private final int width;
+    private final int topK;
+    //累计多少次后衰减
+    private final long decayInterval;
+    private final AtomicLongArray counters;
+    //候选热点key -> 估算次数，并发写入时可能短暂超过topK个
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+    //候选已满时进入候选需要超过的估算次数，即最近一次淘汰后的最小候选次数
+    private volatile long threshold;
+    private final AtomicLong added = new AtomicLong();
+
+    public HotKeySketch(int width, int topK) {
+        this.width = width;
+        this.topK = topK;
+        this.decayInterval = (long) width * 10;
+        this.counters = new AtomicLongArray(DEPTH * width);
+    }
+
+    public void add(String key){
+        //每一行取计数的最小值作为估算次数
+        long estimate = Long.MAX_VALUE;
+        int hash = key.hashCode();
+        for(int i = 0; i < DEPTH; i++){
+            estimate = Math.min(estimate, counters.incrementAndGet(index(i, hash)));
+        }
+        offer(key, estimate);
+        //只有累计次数恰好到达衰减间隔的线程执行衰减
+        if(added.incrementAndGet() % decayInterval == 0){
+            decay();
+        }
+    }
+
+    //按估算次数从高到低返回热点key
+    public Map<String, Long> top(){
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(candidates.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> top = new LinkedHashMap<>();
+        entries.stream().limit(topK).forEach(e -> top.put(e.getKey(), e.getValue()));
+        return top;
+    }
+
+    private void offer(String key, long estimate){
+        if(candidates.containsKey(key)){
+            candidates.put(key, estimate);
+            return;
+        }
+        if(candidates.size() >= topK && estimate <= threshold){
+            return;
+        }
+        candidates.put(key, estimate);
+        if(candidates.size() > topK){
+            evict();
+        }
+    }
+
+    //淘汰估算次数最小的候选key，并把剩余候选中的最小次数作为新的门槛，topK较小，直接遍历
+    private void evict(){
+        Map.Entry<String, Long> min = null;
+        long second = Long.MAX_VALUE;
+        for(Map.Entry<String, Long> entry : candidates.entrySet()){
+            if(min == null || entry.getValue() < min.getValue()){
+                if(min != null){
+                    second = min.getValue();
+                }
+                min = Map.entry(entry.getKey(), entry.getValue());
+            }else if(entry.getValue() < second){
+                second = entry.getValue();
+            }
+        }
+        //其他线程已更新或淘汰了该key时不删除
+        if(min != null && candidates.remove(min.getKey(), min.getValue())){
+            threshold = second == Long.MAX_VALUE ? min.getValue() : second;
+        }
+    }
+
+    private void decay(){
+        for(int i = 0; i < counters.length(); i++){
+            counters.getAndUpdate(i, c -> c >> 1);
+        }
+        candidates.replaceAll((k, v) -> v >> 1);
+        threshold >>= 1;
+    }
+
+    private int index(int row, int hash){
+        int h = (hash ^ SEEDS[row]) * 0x85ebca6b;
+        h ^= h >>> 13;
+        return row * width + ((h & Integer.MAX_VALUE) % width);
+    }
+}
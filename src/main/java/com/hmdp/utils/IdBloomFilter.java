@@ -0,0 +1,167 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RFuture;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 基于redis bitmap的布隆过滤器，拦截不存在的商铺、博文、用户ID，防止缓存穿透
+ */
+@Slf4j
+@Component
+public class IdBloomFilter {
+    //启动时分批加载ID的批大小
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final RedissonClient redissonClient;
+    private final ShopMapper shopMapper;
+    private final BlogMapper blogMapper;
+    private final UserMapper userMapper;
+    //已完成初始化的过滤器，未完成前不做拦截
+    private final Set<String> readyFilters = ConcurrentHashMap.newKeySet();
+
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+    @Value("${hmdp.bloom.false-probability:0.01}")
+    private double falseProbability;
+    //单个过滤器最多占用的内存，超出时放宽误判率
+    @Value("${hmdp.bloom.max-memory-bytes:4194304}")
+    private long maxMemoryBytes;
+
+    public IdBloomFilter(RedissonClient redissonClient, ShopMapper shopMapper, BlogMapper blogMapper, UserMapper userMapper) {
+        this.redissonClient = redissonClient;
+        this.shopMapper = shopMapper;
+        this.blogMapper = blogMapper;
+        this.userMapper = userMapper;
+    }
+
+    //应用启动完成后异步加载ID，加载期间不拦截请求
+    @EventListener(ApplicationReadyEvent.class)
+    public void init(){
+        Thread loader = new Thread(() -> {
+            load(RedisConstants.BLOOM_SHOP_KEY, shopMapper);
+            load(RedisConstants.BLOOM_BLOG_KEY, blogMapper);
+            load(RedisConstants.BLOOM_USER_KEY, userMapper);
+        }, "bloom-filter-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 判断ID是否可能存在
+     * @param filterKey 过滤器key
+     * @param id ID
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(String filterKey, Object id){
+        if(!readyFilters.contains(filterKey)){
+            return true;
+        }
+        try {
+            return getFilter(filterKey).contains(id.toString());
+        } catch (Exception e) {
+            //过滤器不可用（例如redis被清空）时放行，交给缓存和数据库判断
+            log.error("布隆过滤器查询异常: {}", filterKey, e);
+            return true;
+        }
+    }
+
+    /**
+     * 批量判断ID是否可能存在
+     * 先一次查询所有ID，全部可能存在时直接返回；否则并发逐个查询找出一定不存在的ID
+     * @param filterKey 过滤器key
+     * @param ids ID列表
+     * @return 可能存在的ID，顺序与ids一致
+     */
+    public <ID> List<ID> mightContainAll(String filterKey, List<ID> ids){
+        if(!readyFilters.contains(filterKey) || ids.isEmpty()){
+            return ids;
+        }
+        try {
+            RBloomFilter<String> filter = getFilter(filterKey);
+            List<String> values = ids.stream().map(Object::toString).collect(Collectors.toList());
+            if(filter.contains(values) == values.size()){
+                return ids;
+            }
+            List<RFuture<Boolean>> futures = values.stream().map(filter::containsAsync).collect(Collectors.toList());
+            List<ID> result = new ArrayList<>(ids.size());
+            for(int i = 0; i < ids.size(); i++){
+                if(futures.get(i).toCompletableFuture().join()){
+                    result.add(ids.get(i));
+                }
+            }
+            return result;
+        } catch (Exception e) {
+            log.error("布隆过滤器查询异常: {}", filterKey, e);
+            return ids;
+        }
+    }
+
+    //新增数据后写入过滤器
+    public void add(String filterKey, Object id){
+        try {
+            getFilter(filterKey).add(id.toString());
+        } catch (Exception e) {
+            log.error("布隆过滤器写入异常: {}", filterKey, e);
+        }
+    }
+
+    private RBloomFilter<String> getFilter(String filterKey){
+        return redissonClient.getBloomFilter(filterKey, StringCodec.INSTANCE);
+    }
+
+    private <T> void load(String filterKey, BaseMapper<T> mapper){
+        try {
+            RBloomFilter<String> filter = getFilter(filterKey);
+            filter.tryInit(expectedInsertions, fitFalseProbability());
+            //按主键分批加载ID
+            long lastId = 0L;
+            long total = 0L;
+            while(true){
+                List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                        .select("id").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + LOAD_BATCH_SIZE));
+                if(ids.isEmpty()){
+                    break;
+                }
+                filter.add(ids.stream().map(Object::toString).collect(Collectors.toList()));
+                total += ids.size();
+                lastId = Long.parseLong(ids.get(ids.size() - 1).toString());
+            }
+            readyFilters.add(filterKey);
+            log.info("布隆过滤器加载完成: {}, ID数量: {}", filterKey, total);
+        } catch (Exception e) {
+            log.error("布隆过滤器加载失败: {}", filterKey, e);
+        }
+    }
+
+    //按内存上限计算误判率：位数 m = -n*ln(p)/(ln2)^2，超出上限时 p = e^(-m*(ln2)^2/n)
+    private double fitFalseProbability(){
+        double ln2Square = Math.log(2) * Math.log(2);
+        double bits = -expectedInsertions * Math.log(falseProbability) / ln2Square;
+        long maxBits = maxMemoryBytes * 8;
+        if(bits <= maxBits){
+            return falseProbability;
+        }
+        double probability = Math.exp(-maxBits * ln2Square / expectedInsertions);
+        log.warn("布隆过滤器超出内存上限，误判率由 {} 调整为 {}", falseProbability, probability);
+        return probability;
+    }
+}
@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson.JSON;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * fastjson文本编解码
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "json", matchIfMissing = true)
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSON.toJSONBytes(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return JSON.parseObject(bytes, type);
+    }
+}
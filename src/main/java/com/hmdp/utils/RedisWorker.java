@@ -1,12 +1,21 @@
 package com.hmdp.utils;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 @Slf4j
@@ -14,11 +23,48 @@ public class RedisWorker {
     private StringRedisTemplate stringRedisTemplate;
     private Long BEGIN_TIMESTAMP = 1735689600L; // 2025-01-01 00:00:00 UTC
     private int COUNT_BITS = 32; // 序列号占用的位数
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    //号段大小，大于0时每个节点一次INCRBY租用一段序列号，0表示每个ID一次INCR
+    @Value("${hmdp.id.segment-size:0}")
+    private int segmentSize;
+    //开启后使用本地雪花算法生成ID，优先于号段模式
+    @Value("${hmdp.id.snowflake:false}")
+    private boolean snowflake;
+    private SnowflakeIdWorker snowflakeIdWorker;
+    //keyPrefix -> 号段缓冲
+    private final Map<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+    //异步预取下一个号段的线程
+    private static final ExecutorService SEGMENT_LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public RedisWorker(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PostConstruct
+    private void init(){
+        if(snowflake){
+            snowflakeIdWorker = new SnowflakeIdWorker(stringRedisTemplate);
+            snowflakeIdWorker.start();
+        }
+    }
+
+    @PreDestroy
+    private void destroy(){
+        if(snowflakeIdWorker != null){
+            snowflakeIdWorker.stop();
+        }
+    }
+
     public long nextId(String keyPrefix){
+        //workerId租约失效时（续期持续失败）改用redis序列号，两种ID的模式标识位不同，不会重复
+        if(snowflakeIdWorker != null && snowflakeIdWorker.isLeaseValid()){
+            return snowflakeIdWorker.nextId();
+        }
         //获得时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
@@ -27,11 +73,90 @@ public class RedisWorker {
 
         //生成序列号
         //获得当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        //redis自增长
-        long count = stringRedisTemplate.opsForValue().increment("incr:"+keyPrefix+":"+date);
+        String date = now.format(DATE_FORMATTER);
+        long count;
+        if(segmentSize > 0){
+            //从本地号段中获取
+            count = segmentBuffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(date);
+        }else{
+            //redis自增长
+            count = stringRedisTemplate.opsForValue().increment("incr:"+keyPrefix+":"+date);
+        }
 
         //拼接并返回
         return timeStamp<<COUNT_BITS|count;
     }
+
+    //从redis租用一个号段：INCRBY返回号段的最大值
+    private Segment loadSegment(String keyPrefix, String date){
+        Long max = stringRedisTemplate.opsForValue().increment("incr:"+keyPrefix+":"+date, segmentSize);
+        return new Segment(date, max - segmentSize + 1, max);
+    }
+
+    private static class Segment {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long max;
+
+        Segment(String date, long start, long max) {
+            this.date = date;
+            this.cursor = new AtomicLong(start);
+            this.max = max;
+        }
+    }
+
+    private class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private CompletableFuture<Segment> next;
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(String date){
+            while(true){
+                Segment segment = current;
+                if(segment != null && segment.date.equals(date)){
+                    long count = segment.cursor.getAndIncrement();
+                    if(count <= segment.max){
+                        //号段消耗到剩余20%时，异步预取下一个号段
+                        if(segment.max - count == segmentSize / 5){
+                            prefetch(date);
+                        }
+                        return count;
+                    }
+                }
+                //号段用完或跨天，切换号段
+                switchSegment(segment, date);
+            }
+        }
+
+        private synchronized void prefetch(String date){
+            if(next == null){
+                next = CompletableFuture.supplyAsync(() -> loadSegment(keyPrefix, date), SEGMENT_LOADER);
+            }
+        }
+
+        private synchronized void switchSegment(Segment exhausted, String date){
+            //其他线程已经切换过
+            if(current != exhausted){
+                return;
+            }
+            Segment segment = null;
+            if(next != null){
+                try {
+                    segment = next.join();
+                } catch (Exception e) {
+                    log.error("预取号段失败，keyPrefix: {}", keyPrefix, e);
+                }
+                next = null;
+            }
+            //没有预取的号段，或预取的号段已跨天，同步租用
+            if(segment == null || !segment.date.equals(date)){
+                segment = loadSegment(keyPrefix, date);
+            }
+            current = segment;
+        }
+    }
 }
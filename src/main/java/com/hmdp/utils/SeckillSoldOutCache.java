@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地秒杀售罄标记，售罄后的请求直接在本节点拒绝，不再访问redis
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutCache implements MessageListener {
+    //售罄标记的本地有效期，防止补货消息丢失后一直拒绝请求
+    private static final long SOLD_OUT_TTL_MILLIS = 10_000L;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    //voucherId -> 标记售罄的时间
+    private final Map<Long, Long> soldOutMap = new ConcurrentHashMap<>();
+
+    public SeckillSoldOutCache(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init(){
+        //订阅补货消息
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_STOCK_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId){
+        Long markTime = soldOutMap.get(voucherId);
+        if(markTime == null){
+            return false;
+        }
+        if(System.currentTimeMillis() - markTime > SOLD_OUT_TTL_MILLIS){
+            //标记过期，重新交给redis判断
+            soldOutMap.remove(voucherId, markTime);
+            return false;
+        }
+        return true;
+    }
+
+    public void markSoldOut(Long voucherId){
+        soldOutMap.put(voucherId, System.currentTimeMillis());
+    }
+
+    //库存补充后广播给所有节点，清除售罄标记
+    public void publishReplenish(Long voucherId){
+        soldOutMap.remove(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_STOCK_CHANNEL, voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String voucherId = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            soldOutMap.remove(Long.valueOf(voucherId));
+        } catch (NumberFormatException e) {
+            log.error("补货消息格式错误: {}", voucherId);
+        }
+    }
+}
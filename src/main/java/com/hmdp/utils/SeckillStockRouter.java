@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀库存路由：按用户选择库存分片并执行扣减脚本
+ * 第i个分片的库存、下单集合和订单消息队列带有同一个{shard<i>}哈希标签，每次脚本只操作一个分片，
+ * 不同分片落在不同的slot中，集群部署时可以分布到不同节点；没有分片数记录的旧优惠券沿用不带标签的key和stream.orders
+ * 用户所属分片售罄时先在所属分片的下单集合中预占用户，再依次探测其他分片，全部售罄时释放预占
+ */
+@Component
+public class SeckillStockRouter {
+    //扣减成功、库存不足、用户已下单
+    public static final long OK = 0L;
+    public static final long SOLD_OUT = 1L;
+    public static final long DUPLICATE = 2L;
+    //所属分片售罄，已预占用户，需要探测其他分片
+    private static final long RESERVED = 3L;
+    //最大分片数，每个分片一个订单消息队列，消费者按该数量启动
+    //分片数为0表示旧的单key库存
+    public static final int MAX_SHARDS = 8;
+    public static final String ORDER_STREAM = "stream.orders";
+    //分片售罄标记的本地有效期，防止补货后一直跳过该分片
+    private static final long SOLD_OUT_TTL_MILLIS = 10_000L;
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> PROBE_SCRIPT;
+    static{
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        PROBE_SCRIPT = new DefaultRedisScript<>();
+        PROBE_SCRIPT.setLocation(new ClassPathResource("seckill_probe.lua"));
+        PROBE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String orderStream;
+    //voucherId -> 分片数，创建后不再变化，只缓存已存在的优惠券
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+    //已售罄的库存key -> 标记时间，不再执行脚本，售罄的优惠券每个节点每个分片只探测一次
+    private final Map<String, Long> soldOutShards = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SeckillStockRouter(StringRedisTemplate stringRedisTemplate) {
+        this(stringRedisTemplate, ORDER_STREAM);
+    }
+
+    //指定订单消息队列，用于压测时不写入线上队列
+    SeckillStockRouter(StringRedisTemplate stringRedisTemplate, String orderStream) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.orderStream = orderStream;
+    }
+
+    /**
+     * 第shard个分片的订单消息队列
+     */
+    public static String shardStream(int shard){
+        return streamKey(ORDER_STREAM, MAX_SHARDS, shard);
+    }
+
+    /**
+     * 保存秒杀库存，库存平均拆分到各分片，余数分给前面的分片
+     * @param voucherId 优惠券id
+     * @param stock 库存
+     * @param shards 分片数，取值范围1到MAX_SHARDS
+     */
+    public void saveStock(Long voucherId, int stock, int shards){
+        shards = Math.max(1, Math.min(shards, MAX_SHARDS));
+        //各分片在不同的slot中，逐个写入
+        for (int i = 0; i < shards; i++) {
+            int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, shards, i), String.valueOf(shardStock));
+            soldOutShards.remove(stockKey(voucherId, shards, i));
+        }
+        //分片数最后写入，读到分片数时分片库存一定已经存在
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        shardCounts.put(voucherId, shards);
+    }
+
+    /**
+     * 扣减库存并记录订单
+     * 先扣减用户所属分片，所属分片售罄时预占用户后依次探测其他分片，本地已标记售罄的分片不再探测
+     * 一人一单始终由所属分片的下单集合保证
+     * @return OK、SOLD_OUT或DUPLICATE
+     */
+    public long tryDeduct(Long voucherId, Long userId, Long orderId){
+        int shards = shardCount(voucherId);
+        if(shards <= 1){
+            String stockKey = stockKey(voucherId, shards, 0);
+            if(isSoldOut(stockKey)){
+                return SOLD_OUT;
+            }
+            long result = execute(voucherId, shards, 0, false, userId, orderId);
+            if(result == SOLD_OUT){
+                markSoldOut(stockKey);
+            }
+            return result;
+        }
+        int home = (int) Math.floorMod(userId, (long) shards);
+        List<Integer> others = new ArrayList<>();
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            if(!isSoldOut(stockKey(voucherId, shards, shard))){
+                others.add(shard);
+            }
+        }
+        String homeStockKey = stockKey(voucherId, shards, home);
+        if(others.isEmpty() && isSoldOut(homeStockKey)){
+            return SOLD_OUT;
+        }
+        long result = execute(voucherId, shards, home, !others.isEmpty(), userId, orderId);
+        if(result == SOLD_OUT || result == RESERVED){
+            markSoldOut(homeStockKey);
+        }
+        if(result != RESERVED){
+            return result;
+        }
+        for (int shard : others) {
+            if(probe(voucherId, shards, shard, userId, orderId) == OK){
+                return OK;
+            }
+            markSoldOut(stockKey(voucherId, shards, shard));
+        }
+        //所有分片都已售罄，释放预占，进程在此之前退出时该用户保持预占
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, shards, home), userId.toString());
+        return SOLD_OUT;
+    }
+
+    //分片数缓存在本地，每次请求不再访问redis
+    int shardCount(Long voucherId){
+        Integer shards = shardCounts.get(voucherId);
+        if(shards != null){
+            return shards;
+        }
+        String value = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + voucherId);
+        if(value == null){
+            //旧的单key库存，或优惠券尚未创建，不缓存
+            return 0;
+        }
+        shards = Integer.valueOf(value);
+        shardCounts.put(voucherId, shards);
+        return shards;
+    }
+
+    private boolean isSoldOut(String stockKey){
+        Long markTime = soldOutShards.get(stockKey);
+        if(markTime == null){
+            return false;
+        }
+        if(System.currentTimeMillis() - markTime > SOLD_OUT_TTL_MILLIS){
+            soldOutShards.remove(stockKey, markTime);
+            return false;
+        }
+        return true;
+    }
+
+    private void markSoldOut(String stockKey){
+        soldOutShards.put(stockKey, System.currentTimeMillis());
+    }
+
+    //在用户所属分片扣减库存，只有一个分片时reserve为false
+    private long execute(Long voucherId, int shards, int shard, boolean reserve, Long userId, Long orderId){
+        List<String> keys = Arrays.asList(stockKey(voucherId, shards, shard),
+                orderKey(voucherId, shards, shard), streamKey(orderStream, shards, shard));
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, keys,
+                voucherId.toString(), userId.toString(), orderId.toString(), reserve ? "1" : "0");
+        return result == null ? SOLD_OUT : result;
+    }
+
+    //探测其他分片，只扣减库存并写入该分片的订单消息队列
+    private long probe(Long voucherId, int shards, int shard, Long userId, Long orderId){
+        List<String> keys = Arrays.asList(stockKey(voucherId, shards, shard), streamKey(orderStream, shards, shard));
+        Long result = stringRedisTemplate.execute(PROBE_SCRIPT, keys,
+                voucherId.toString(), userId.toString(), orderId.toString());
+        return result == null ? SOLD_OUT : result;
+    }
+
+    static String stockKey(Long voucherId, int shards, int shard){
+        return shards == 0 ? RedisConstants.SECKILL_STOCK_KEY + voucherId
+                : RedisConstants.SECKILL_STOCK_KEY + voucherId + ":{shard" + shard + "}";
+    }
+
+    static String orderKey(Long voucherId, int shards, int shard){
+        return shards == 0 ? RedisConstants.SECKILL_ORDER_KEY + voucherId
+                : RedisConstants.SECKILL_ORDER_KEY + voucherId + ":{shard" + shard + "}";
+    }
+
+    static String streamKey(String orderStream, int shards, int shard){
+        return shards == 0 ? orderStream : orderStream + ":{shard" + shard + "}";
+    }
+}
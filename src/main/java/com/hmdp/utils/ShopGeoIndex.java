@@ -0,0 +1,260 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.NumberUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 本地商铺地理位置索引：每个商铺类型一个经纬度网格，不依赖redis GEO即可查询附近商铺
+ * 启动时从tb_shop加载，收到商铺缓存失效广播时按最新数据更新
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex {
+    //与redis GEO相同的地球半径，距离结果与GEOSEARCH一致
+    private static final double EARTH_RADIUS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = Math.PI / 180 * EARTH_RADIUS;
+    private static final int LOAD_BATCH_SIZE = 1000;
+    //按距离、商铺id排序
+    public static final Comparator<GeoHit> ORDER = Comparator.comparingDouble(GeoHit::getDistance)
+            .thenComparingLong(GeoHit::getShopId);
+
+    private final ShopMapper shopMapper;
+    private final RedisMessageListenerContainer listenerContainer;
+    //网格边长（度）
+    @Value("${hmdp.geo.cell-degrees:0.01}")
+    private double cellDegrees;
+
+    //typeId -> (网格 -> 网格内的商铺)
+    private final Map<Long, Map<Long, Set<GeoEntry>>> grids = new ConcurrentHashMap<>();
+    //shopId -> 商铺位置，更新时从原网格中移除
+    private final Map<Long, GeoEntry> entries = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shop-geo-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShopGeoIndex(ShopMapper shopMapper, RedisMessageListenerContainer listenerContainer) {
+        this.shopMapper = shopMapper;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init(){
+        //商铺缓存被删除说明商铺发生了变更，重新加载该商铺的位置
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            if(key.startsWith(RedisConstants.CACHE_SHOP_KEY)){
+                String id = key.substring(RedisConstants.CACHE_SHOP_KEY.length());
+                if(NumberUtil.isLong(id)){
+                    updater.execute(() -> refresh(Long.valueOf(id)));
+                }
+            }
+        }, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+    }
+
+    @PreDestroy
+    private void destroy(){
+        updater.shutdownNow();
+    }
+
+    //应用启动完成后异步加载
+    @EventListener(ApplicationReadyEvent.class)
+    public void load(){
+        updater.execute(() -> {
+            try {
+                long lastId = 0L;
+                while(true){
+                    List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                            .select("id", "type_id", "x", "y")
+                            .gt("id", lastId).orderByAsc("id")
+                            .last("LIMIT " + LOAD_BATCH_SIZE));
+                    if(shops.isEmpty()){
+                        break;
+                    }
+                    shops.forEach(this::put);
+                    lastId = shops.get(shops.size() - 1).getId();
+                }
+                ready = true;
+                log.info("商铺位置索引加载完成，商铺数量: {}", entries.size());
+            } catch (Exception e) {
+                log.error("商铺位置索引加载失败", e);
+            }
+        });
+    }
+
+    public boolean isReady(){
+        return ready;
+    }
+
+    /**
+     * 按距离由近到远查询商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radius 半径（米）
+     * @param limit 最多返回的数量
+     * @param afterDistance 游标：只返回排在该距离和商铺id之后的商铺，为null时从头开始
+     * @param afterShopId 游标中的商铺id
+     * @return 商铺id和距离（米）
+     */
+    public List<GeoHit> nearest(Long typeId, double x, double y, double radius, int limit,
+                                Double afterDistance, Long afterShopId){
+        Map<Long, Set<GeoEntry>> grid = grids.get(typeId);
+        if(grid == null || limit <= 0){
+            return Collections.emptyList();
+        }
+        GeoHit cursor = afterDistance == null ? null : new GeoHit(afterShopId == null ? Long.MAX_VALUE : afterShopId, afterDistance);
+        //经度方向的网格在高纬度更窄，按半径内的最高纬度计算网格的最小边长
+        double maxLatitude = Math.min(89.0, Math.abs(y) + radius / METERS_PER_DEGREE);
+        double cellMeters = cellDegrees * METERS_PER_DEGREE * Math.cos(Math.toRadians(maxLatitude));
+        long cx = cell(x);
+        long cy = cell(y);
+        //大顶堆，保留最近的limit个
+        PriorityQueue<GeoHit> nearest = new PriorityQueue<>(ORDER.reversed());
+        for(int ring = 0; ; ring++){
+            //由内向外逐圈查找，查询点可能在网格边缘，第ring圈及之外的商铺距离至少为 (ring-1)*cellMeters
+            double ringDistance = Math.max(0, ring - 1) * cellMeters;
+            if(ringDistance > radius || (nearest.size() == limit && nearest.peek().getDistance() <= ringDistance)){
+                break;
+            }
+            for(long[] c : ringCells(cx, cy, ring)){
+                Set<GeoEntry> cell = grid.get(cellKey(c[0], c[1]));
+                if(cell == null){
+                    continue;
+                }
+                for(GeoEntry entry : cell){
+                    GeoHit hit = new GeoHit(entry.shopId, distance(x, y, entry.x, entry.y));
+                    if(hit.getDistance() > radius || (cursor != null && ORDER.compare(hit, cursor) <= 0)){
+                        continue;
+                    }
+                    nearest.offer(hit);
+                    if(nearest.size() > limit){
+                        nearest.poll();
+                    }
+                }
+            }
+        }
+        List<GeoHit> result = new ArrayList<>(nearest);
+        result.sort(ORDER);
+        return result;
+    }
+
+    private void refresh(Long shopId){
+        try {
+            Shop shop = shopMapper.selectById(shopId);
+            if(shop == null){
+                remove(shopId);
+            }else{
+                put(shop);
+            }
+        } catch (Exception e) {
+            log.error("更新商铺位置索引失败: {}", shopId, e);
+        }
+    }
+
+    private synchronized void put(Shop shop){
+        remove(shop.getId());
+        if(shop.getTypeId() == null || shop.getX() == null || shop.getY() == null){
+            return;
+        }
+        GeoEntry entry = new GeoEntry(shop.getId(), shop.getTypeId(), shop.getX(), shop.getY());
+        grids.computeIfAbsent(entry.typeId, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(cellKey(cell(entry.x), cell(entry.y)), k -> ConcurrentHashMap.newKeySet())
+                .add(entry);
+        entries.put(entry.shopId, entry);
+    }
+
+    private synchronized void remove(Long shopId){
+        GeoEntry old = entries.remove(shopId);
+        if(old == null){
+            return;
+        }
+        Map<Long, Set<GeoEntry>> grid = grids.get(old.typeId);
+        Set<GeoEntry> cell = grid == null ? null : grid.get(cellKey(cell(old.x), cell(old.y)));
+        if(cell != null){
+            cell.remove(old);
+        }
+    }
+
+    private long cell(double degrees){
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long cellKey(long cx, long cy){
+        return cx << 32 | (cy & 0xffffffffL);
+    }
+
+    //第ring圈的所有网格
+    private static List<long[]> ringCells(long cx, long cy, int ring){
+        List<long[]> cells = new ArrayList<>();
+        if(ring == 0){
+            cells.add(new long[]{cx, cy});
+            return cells;
+        }
+        for(int i = -ring; i <= ring; i++){
+            cells.add(new long[]{cx + i, cy - ring});
+            cells.add(new long[]{cx + i, cy + ring});
+        }
+        for(int j = -ring + 1; j < ring; j++){
+            cells.add(new long[]{cx - ring, cy + j});
+            cells.add(new long[]{cx + ring, cy + j});
+        }
+        return cells;
+    }
+
+    //haversine公式计算两点距离（米）
+    private static double distance(double x1, double y1, double x2, double y2){
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private record GeoEntry(long shopId, long typeId, double x, double y) {
+    }
+
+    //查询结果：商铺id和距离（米）
+    public static class GeoHit {
+        private final long shopId;
+        private final double distance;
+
+        public GeoHit(long shopId, double distance) {
+            this.shopId = shopId;
+            this.distance = distance;
+        }
+
+        public long getShopId() {
+            return shopId;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 雪花算法ID生成器，热路径不访问redis
+ * ID结构：1位符号 | 1位模式标识 | 40位毫秒时间戳 | 10位workerId | 12位毫秒内序列号
+ * 模式标识位保证与RedisWorker的 秒级时间戳<<32|序列号 格式的ID不会重复
+ * workerId租约由心跳续期，续期持续失败时租约可能已过期并被其他节点占用，距上次续期成功超过 租约时长-安全余量 后停止生成ID
+ */
+@Slf4j
+public class SnowflakeIdWorker {
+    private static final long BEGIN_MILLIS = 1735689600000L; // 2025-01-01 00:00:00 UTC
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long MODE_BIT = 1L << 62;
+    //允许的最大时钟回拨，超过则拒绝生成ID
+    private static final long MAX_BACKWARD_MILLIS = 1000L;
+
+    private static final String WORKER_KEY = "id:worker:";
+    private static final long WORKER_LEASE_MILLIS = 60_000L;
+    //租约到期前预留的时间，覆盖续期请求的网络延迟和节点间的时钟误差
+    private static final long LEASE_SAFETY_MILLIS = 10_000L;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    static{
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    //毫秒时间戳，ID中的时间部分
+    private final LongSupplier clock;
+    //单调时钟（纳秒），判断租约是否过期，不受系统时钟回拨影响
+    private final LongSupplier ticker;
+    private final String owner = UUID.randomUUID(true).toString();
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "id-worker-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long workerId = -1;
+    //最近一次租用或续期成功的单调时钟时间
+    private volatile long leaseRenewedNanos;
+    //时间戳<<12|序列号，序列号溢出时自动进位到下一毫秒
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate) {
+        this(stringRedisTemplate, System::currentTimeMillis, System::nanoTime);
+    }
+
+    SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate, LongSupplier clock, LongSupplier ticker) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.clock = clock;
+        this.ticker = ticker;
+    }
+
+    public void start(){
+        workerId = leaseWorkerId();
+        //定时续期workerId租约
+        heartbeatExecutor.scheduleWithFixedDelay(this::renew,
+                WORKER_LEASE_MILLIS / 3, WORKER_LEASE_MILLIS / 3, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop(){
+        heartbeatExecutor.shutdownNow();
+        if(workerId >= 0){
+            //释放workerId
+            stringRedisTemplate.execute(SimpleRedisLock.UNLOCK_SCRIPT,
+                    Collections.singletonList(WORKER_KEY + workerId), owner);
+        }
+    }
+
+    /**
+     * workerId租约是否仍然有效，无效时调用方应改用其他方式生成ID
+     */
+    public boolean isLeaseValid(){
+        return workerId >= 0
+                && ticker.getAsLong() - leaseRenewedNanos < TimeUnit.MILLISECONDS.toNanos(WORKER_LEASE_MILLIS - LEASE_SAFETY_MILLIS);
+    }
+
+    public long nextId(){
+        long worker = workerId;
+        if(worker < 0){
+            throw new RuntimeException("未获取到可用的workerId");
+        }
+        if(!isLeaseValid()){
+            throw new RuntimeException("workerId租约即将过期，拒绝生成ID: " + worker);
+        }
+        while(true){
+            long now = clock.getAsLong() - BEGIN_MILLIS;
+            long last = state.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long next;
+            if(now > lastTimestamp){
+                next = now << SEQUENCE_BITS;
+            }else{
+                //同一毫秒或时钟回拨：沿用逻辑时钟继续递增
+                if(lastTimestamp - now > MAX_BACKWARD_MILLIS){
+                    throw new RuntimeException("时钟回拨过大，拒绝生成ID，回拨毫秒数: " + (lastTimestamp - now));
+                }
+                next = last + 1;
+            }
+            if(state.compareAndSet(last, next)){
+                return MODE_BIT
+                        | (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                        | worker << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    //从redis租用一个未被占用的workerId
+    private long leaseWorkerId(){
+        for (long id = 0; id <= MAX_WORKER_ID; id++) {
+            long start = ticker.getAsLong();
+            Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(WORKER_KEY + id, owner,
+                    WORKER_LEASE_MILLIS, TimeUnit.MILLISECONDS);
+            if(Boolean.TRUE.equals(success)){
+                //以发送请求的时间为租约起点，偏保守
+                leaseRenewedNanos = start;
+                log.info("获取workerId: {}", id);
+                return id;
+            }
+        }
+        throw new RuntimeException("workerId已全部被占用");
+    }
+
+    private void renew(){
+        try {
+            if(workerId < 0){
+                //上次重新租用失败，继续尝试
+                workerId = leaseWorkerId();
+                return;
+            }
+            long start = ticker.getAsLong();
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(WORKER_KEY + workerId),
+                    owner, String.valueOf(WORKER_LEASE_MILLIS));
+            if(result != null && result != 0L){
+                leaseRenewedNanos = start;
+            }else{
+                //workerId已被其他节点占用，重新租用
+                log.error("workerId租约丢失: {}", workerId);
+                workerId = -1;
+                workerId = leaseWorkerId();
+            }
+        } catch (Exception e) {
+            //续期失败不更新租约时间，超过安全期限后nextId拒绝生成ID
+            log.error("workerId续期异常", e);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.AutoClaimResult;
+import org.redisson.api.PendingResult;
+import org.redisson.api.RStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.StreamGroup;
+import org.redisson.api.StreamMessageId;
+import org.redisson.api.stream.StreamAddArgs;
+import org.redisson.api.stream.StreamCreateGroupArgs;
+import org.redisson.api.stream.StreamTrimArgs;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * redis stream消费组：每个节点多个消费者批量读取消息，处理成功后一次XACK确认
+ * 整批处理失败时逐条重试；定时用XAUTOCLAIM认领所有消费者（包括已宕机的消费者）中空闲的pending消息，
+ * 超过最大投递次数的消息转入 stream名.dlq 死信队列
+ * 写入消息时不裁剪stream，由定时任务用XTRIM MINID只删除所有消费组都已确认的消息
+ */
+@Slf4j
+public class StreamConsumerGroup {
+    public static final String GROUP_NAME = "g1";
+    //实例标识：主机名-进程号，保证多实例部署时消费者名称唯一
+    private static final String INSTANCE_ID = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+    private static final StreamMessageId ZERO_ID = new StreamMessageId(0, 0);
+    private static final long TRIM_INTERVAL_MILLIS = 60_000L;
+
+    /**
+     * 处理一批消息，正常返回后这批消息被确认，抛出异常时改为逐条重试
+     */
+    public interface BatchHandler {
+        void handle(List<MapRecord<String, Object, Object>> records) throws Exception;
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+    private final String streamName;
+    private final String deadLetterName;
+    private final BatchHandler handler;
+    private int consumerCount = 1;
+    private int readCount = 10;
+    private long pendingIdleMillis = 30_000L;
+    private int maxDeliveries = 5;
+    private MeterRegistry meterRegistry;
+    //最近一次裁剪后的stream长度和未确认消息数量
+    private final AtomicLong length = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+
+    private ExecutorService consumers;
+    private ScheduledExecutorService scheduler;
+
+    public StreamConsumerGroup(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient,
+                               String streamName, BatchHandler handler) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.streamName = streamName;
+        this.deadLetterName = streamName + ".dlq";
+        this.handler = handler;
+    }
+
+    //每个节点的消费者数量
+    public StreamConsumerGroup consumers(int consumerCount){
+        this.consumerCount = consumerCount;
+        return this;
+    }
+
+    //每次读取的最大消息数量
+    public StreamConsumerGroup readCount(int readCount){
+        this.readCount = readCount;
+        return this;
+    }
+
+    //pending消息空闲超过该时间才会被认领重试
+    public StreamConsumerGroup pendingIdle(long pendingIdleMillis){
+        this.pendingIdleMillis = pendingIdleMillis;
+        return this;
+    }
+
+    public StreamConsumerGroup maxDeliveries(int maxDeliveries){
+        this.maxDeliveries = maxDeliveries;
+        return this;
+    }
+
+    //注册stream长度和未确认消息数量的监控指标
+    public StreamConsumerGroup metrics(MeterRegistry meterRegistry){
+        this.meterRegistry = meterRegistry;
+        return this;
+    }
+
+    public void start(){
+        createGroup();
+        if(meterRegistry != null){
+            Gauge.builder("stream.length", length, AtomicLong::get).tag("stream", streamName).register(meterRegistry);
+            Gauge.builder("stream.pending", pending, AtomicLong::get).tag("stream", streamName).register(meterRegistry);
+        }
+        consumers = Executors.newFixedThreadPool(consumerCount);
+        for (int i = 0; i < consumerCount; i++) {
+            String consumerName = INSTANCE_ID + "-c" + i;
+            consumers.submit(() -> consume(consumerName));
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        //空闲时间配置为0或1时间隔至少1毫秒，否则scheduleWithFixedDelay会抛出异常
+        scheduler.scheduleWithFixedDelay(this::recoverPending,
+                pendingIdleMillis, Math.max(1, pendingIdleMillis / 2), TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::trimAcknowledged,
+                TRIM_INTERVAL_MILLIS, TRIM_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop(){
+        if(consumers != null){
+            consumers.shutdownNow();
+        }
+        if(scheduler != null){
+            scheduler.shutdownNow();
+        }
+    }
+
+    //消费组不存在时创建，已存在时忽略
+    private void createGroup(){
+        try {
+            redissonClient.getStream(streamName, StringCodec.INSTANCE)
+                    .createGroup(StreamCreateGroupArgs.name(GROUP_NAME).id(StreamMessageId.ALL).makeStream());
+        } catch (Exception e) {
+            if(e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")){
+                log.error("创建消费组失败: {}", streamName, e);
+            }
+        }
+    }
+
+    private void consume(String consumerName){
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(GROUP_NAME, consumerName),
+                        StreamReadOptions.empty().count(readCount).block(Duration.ofSeconds(2L)),
+                        StreamOffset.create(streamName, ReadOffset.lastConsumed())
+                );
+                if(list == null || list.isEmpty()){
+                    continue;
+                }
+                handleOrEach(list);
+            } catch (Exception e) {
+                log.error("stream消费线程异常: {}", streamName, e);
+                //失败的消息留在pendinglist中，由recoverPending认领重试
+                try {
+                    Thread.sleep(1000L);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    //整批处理失败时逐条处理，避免一条坏消息拖住整批消息
+    private void handleOrEach(List<MapRecord<String, Object, Object>> records){
+        try {
+            handle(records);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if(records.size() == 1){
+                log.error("stream消息处理异常，消息ID: {}", records.get(0).getId(), e);
+                return;
+            }
+            log.error("stream消息批量处理异常，改为逐条处理: {}", streamName, e);
+            for (MapRecord<String, Object, Object> record : records) {
+                try {
+                    handle(Collections.singletonList(record));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception ex) {
+                    log.error("stream消息处理异常，消息ID: {}", record.getId(), ex);
+                }
+            }
+        }
+    }
+
+    //处理成功后一次XACK确认整批消息
+    private void handle(List<MapRecord<String, Object, Object>> records) throws Exception {
+        handler.handle(records);
+        RecordId[] recordIds = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(streamName, GROUP_NAME, recordIds);
+    }
+
+    //认领空闲的pending消息：未超过投递次数的重试，超过的转入死信队列
+    void recoverPending(){
+        String recoveryConsumer = INSTANCE_ID + "-recovery";
+        try {
+            RStream<String, String> stream = redissonClient.getStream(streamName, StringCodec.INSTANCE);
+            StreamMessageId startId = ZERO_ID;
+            do {
+                //XAUTOCLAIM，认领后消息的投递次数加1
+                AutoClaimResult<String, String> claimed = stream.autoClaim(GROUP_NAME, recoveryConsumer,
+                        pendingIdleMillis, TimeUnit.MILLISECONDS, startId, readCount);
+                if(!claimed.getMessages().isEmpty()){
+                    handleClaimed(stream, recoveryConsumer, claimed.getMessages());
+                }
+                startId = claimed.getNextId();
+            } while (!startId.equals(ZERO_ID) && !Thread.currentThread().isInterrupted());
+        } catch (Exception e) {
+            log.error("pendinglist消息恢复异常: {}", streamName, e);
+        }
+    }
+
+    private void handleClaimed(RStream<String, String> stream, String recoveryConsumer,
+                               Map<StreamMessageId, Map<String, String>> messages){
+        //查询认领后各消息的投递次数
+        List<StreamMessageId> ids = new ArrayList<>(messages.keySet());
+        Map<StreamMessageId, Long> deliveries = new HashMap<>();
+        stream.listPending(GROUP_NAME, recoveryConsumer, ids.get(0), ids.get(ids.size() - 1), ids.size() + readCount)
+                .forEach(entry -> deliveries.put(entry.getId(), entry.getLastTimeDelivered()));
+
+        List<MapRecord<String, Object, Object>> retryRecords = new ArrayList<>();
+        List<StreamMessageId> deadIds = new ArrayList<>();
+        RStream<String, String> deadLetters = redissonClient.getStream(deadLetterName, StringCodec.INSTANCE);
+        messages.forEach((id, value) -> {
+            long deliveryCount = deliveries.getOrDefault(id, 1L);
+            if(deliveryCount <= maxDeliveries){
+                retryRecords.add(StreamRecords.newRecord().in(streamName)
+                        .withId(RecordId.of(id.toString()))
+                        .ofMap(new HashMap<Object, Object>(value)));
+                return;
+            }
+            //超过最大投递次数，转入死信队列并记录原消息ID
+            log.error("stream消息超过最大投递次数，转入死信队列，消息ID: {}, 投递次数: {}", id, deliveryCount);
+            Map<String, String> deadLetter = new HashMap<>(value);
+            deadLetter.put("sourceId", id.toString());
+            deadLetter.put("deliveryCount", String.valueOf(deliveryCount));
+            deadLetters.add(StreamAddArgs.entries(deadLetter));
+            deadIds.add(id);
+        });
+        if(!deadIds.isEmpty()){
+            stream.ack(GROUP_NAME, deadIds.toArray(new StreamMessageId[0]));
+        }
+        if(!retryRecords.isEmpty()){
+            handleOrEach(retryRecords);
+        }
+    }
+
+    /**
+     * 删除所有消费组都已确认的消息：每个消费组中 id 小于 最早的pending消息 且不大于 最后投递的消息 的消息都已确认
+     * 先读取最后投递的id再读取pending，两次读取之间新投递的消息id都大于已读取的最后投递id，不会被删除
+     */
+    void trimAcknowledged(){
+        try {
+            RStream<String, String> stream = redissonClient.getStream(streamName, StringCodec.INSTANCE);
+            StreamMessageId minId = null;
+            long pendingCount = 0;
+            for(StreamGroup group : stream.listGroups()){
+                StreamMessageId safeId = group.getLastDeliveredId();
+                PendingResult pendingResult = stream.getPendingInfo(group.getName());
+                if(pendingResult.getTotal() > 0 && compare(pendingResult.getLowestId(), safeId) < 0){
+                    safeId = pendingResult.getLowestId();
+                }
+                pendingCount += pendingResult.getTotal();
+                if(minId == null || compare(safeId, minId) < 0){
+                    minId = safeId;
+                }
+            }
+            //XTRIM MINID删除id小于minId的消息
+            long trimmed = minId == null || minId.equals(ZERO_ID) ? 0 : stream.trim(StreamTrimArgs.minId(minId).noLimit());
+            length.set(stream.size());
+            pending.set(pendingCount);
+            if(trimmed > 0){
+                log.debug("裁剪stream: {}, 删除已确认消息数量: {}, 剩余: {}", streamName, trimmed, length.get());
+            }
+        } catch (Exception e) {
+            log.error("裁剪stream异常: {}", streamName, e);
+        }
+    }
+
+    private static int compare(StreamMessageId a, StreamMessageId b){
+        int result = Long.compareUnsigned(a.getId0(), b.getId0());
+        return result != 0 ? result : Long.compareUnsigned(a.getId1(), b.getId1());
+    }
+}
@@ -0,0 +1,18 @@
+-- 博文点赞数变化时更新热度排行，分数 = log2(点赞数+1) + 发布时间/半衰期
+-- 发布时间部分由当前分数减去旧的点赞部分得到，不在排行中的博文不处理
+local rankKey = KEYS[1]
+local likesKey = KEYS[2]
+local blogId = ARGV[1]
+local delta = tonumber(ARGV[2])
+
+local score = redis.call('zscore', rankKey, blogId)
+if(not score) then
+    return 0
+end
+local oldLiked = tonumber(redis.call('hget', likesKey, blogId) or '0')
+local liked = math.max(oldLiked + delta, 0)
+local timePart = tonumber(score) - math.log(oldLiked + 1) / math.log(2)
+redis.call('hset', likesKey, blogId, liked)
+-- 按17位有效数字写回，避免默认的14位精度在多次更新后累积误差
+redis.call('zadd', rankKey, string.format('%.17g', timePart + math.log(liked + 1) / math.log(2)), blogId)
+return 1
@@ -5,15 +5,28 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 --订单id
 local orderId = ARGV[3]
+--1.4 库存不足时是否在下单集合中预占用户，分片模式下还有其他分片可以探测时为1
+local reserve = ARGV[4]
 
 
---2.数据key
-local stockKey = 'seckill:stock:' .. voucherId
-local orderKey = 'seckill:order:' .. voucherId
+--2.数据key，由调用方选择分片后传入，分片模式下三个key在同一个slot
+--2.1 库存key，分片模式下为用户所属分片
+local stockKey = KEYS[1]
+--2.2 下单集合，分片模式下为用户所属分片的集合
+local orderKey = KEYS[2]
+--2.3 订单消息队列，分片模式下为该分片的队列
+local streamKey = KEYS[3]
 
---3.判断库存是否充足
-if (tonumber(redis.call('get',stockKey)) <= 0) then
-    return 1
+--3.判断库存是否充足，库存key不存在按0处理
+if (tonumber(redis.call('get',stockKey) or 0) <= 0) then
+    if (reserve ~= '1') then
+        return 1
+    end
+    --预占成功后由调用方探测其他分片，全部售罄时再释放
+    if (redis.call('sadd',orderKey,userId) == 0) then
+        return 2
+    end
+    return 3
 end
 
 --4.判断用户是否下单
@@ -26,5 +39,5 @@ redis.call('incrby',stockKey,-1)
 redis.call('sadd',orderKey,userId)
 
 --发送消息队列到队列中 xadd stream.orders * k1 v1 k2 v2
-redis.call('xadd','stream.orders','*','voucherId',voucherId,'userId',userId,'id',orderId)
-return 0
\ No newline at end of file
+redis.call('xadd',streamKey,'*','voucherId',voucherId,'userId',userId,'id',orderId)
+return 0
@@ -0,0 +1,20 @@
+--探测用户所属分片以外的库存分片，调用前用户已在所属分片的下单集合中预占，这里不再判断一人一单
+--1.参数列表：优惠券id、用户id、订单id
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+
+--2.数据key，两个key在同一个slot
+--2.1 库存key
+local stockKey = KEYS[1]
+--2.2 该分片的订单消息队列
+local streamKey = KEYS[2]
+
+--3.判断库存是否充足，库存key不存在按0处理
+if (tonumber(redis.call('get',stockKey) or 0) <= 0) then
+    return 1
+end
+--4.扣减库存并发送订单消息
+redis.call('incrby',stockKey,-1)
+redis.call('xadd',streamKey,'*','voucherId',voucherId,'userId',userId,'id',orderId)
+return 0
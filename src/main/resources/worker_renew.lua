@@ -0,0 +1,9 @@
+--workerId由当前节点持有则续期
+if(redis.call('get',KEYS[1]) == ARGV[1]) then
+    return redis.call('pexpire',KEYS[1],ARGV[2])
+end
+--租约已过期，尝试重新获取
+if(redis.call('set',KEYS[1],ARGV[1],'NX','PX',ARGV[2])) then
+    return 1
+end
+return 0
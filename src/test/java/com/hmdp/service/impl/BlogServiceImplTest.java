@@ -0,0 +1,138 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.User;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.MockRedis;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 博文分页补充作者和点赞状态时，redis往返次数和数据库查询次数不随每页博文数量增长
+ */
+class BlogServiceImplTest {
+    private static final long CURRENT_USER = 1L;
+
+    private final JsonCacheCodec codec = new JsonCacheCodec();
+    private final MockRedis redis = new MockRedis();
+    private final AtomicInteger userQueries = new AtomicInteger();
+
+    private BlogServiceImpl blogService;
+    private BlogHotRanking blogHotRanking;
+
+    @BeforeEach
+    void setUp(){
+        CacheClient cacheClient = redis.cacheClient(codec);
+
+        IUserService userService = mock(IUserService.class);
+        when(userService.listByIds(anyCollection())).thenAnswer(invocation -> {
+            userQueries.incrementAndGet();
+            List<User> users = new ArrayList<>();
+            for(Object id : (Collection<?>) invocation.getArgument(0)){
+                User user = new User();
+                user.setId((Long) id);
+                user.setNickName("user" + id);
+                users.add(user);
+            }
+            return users;
+        });
+        blogHotRanking = mock(BlogHotRanking.class);
+
+        blogService = new BlogServiceImpl();
+        ReflectionTestUtils.setField(blogService, "stringRedisTemplate", redis.template());
+        ReflectionTestUtils.setField(blogService, "cacheClient", cacheClient);
+        ReflectionTestUtils.setField(blogService, "userService", userService);
+        ReflectionTestUtils.setField(blogService, "blogHotRanking", blogHotRanking);
+        UserDTO user = new UserDTO();
+        user.setId(CURRENT_USER);
+        UserHolder.saveUser(user);
+    }
+
+    @AfterEach
+    void tearDown(){
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void roundTripsDoNotGrowWithPageSize(){
+        //博文和作者都在redis中：博文MGET、作者MGET、点赞pipeline
+        for(int size : new int[]{1, 10, 100}){
+            preload(size, true);
+            List<Blog> blogs = queryHot();
+            assertEquals(size, blogs.size());
+            assertEquals(3, redis.roundTrips(), "page size " + size);
+            //命令数随博文数量增长，往返次数不变
+            assertEquals(size + 2, redis.commands());
+            assertEquals(0, userQueries.get());
+            assertTrue(blogs.stream().allMatch(blog -> blog.getName() != null));
+            //偶数id的博文被当前用户点赞
+            assertTrue(blogs.stream().allMatch(blog -> blog.getIsLike() == (blog.getId() % 2 == 0)));
+        }
+    }
+
+    @Test
+    void authorMissesCostOneQueryPerPage(){
+        //作者全部未命中：多一次数据库查询和一次回填pipeline
+        for(int size : new int[]{1, 10, 100}){
+            preload(size, false);
+            List<Blog> blogs = queryHot();
+            assertEquals(size, blogs.size());
+            assertEquals(4, redis.roundTrips(), "page size " + size);
+            assertEquals(2 * size + 2, redis.commands());
+            assertEquals(1, userQueries.get(), "page size " + size);
+            assertTrue(blogs.stream().allMatch(blog -> blog.getName() != null));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Blog> queryHot(){
+        redis.resetCounters();
+        userQueries.set(0);
+        Result result = blogService.queryHotBlog(1);
+        return (List<Blog>) result.getData();
+    }
+
+    //写入size篇博文，每篇博文的作者不同
+    private void preload(int size, boolean withAuthors){
+        redis.clear();
+        List<Long> ids = new ArrayList<>();
+        for(long id = 1; id <= size; id++){
+            Blog blog = new Blog();
+            blog.setId(id);
+            blog.setUserId(1000 + id);
+            redis.set(RedisConstants.CACHE_BLOG_KEY + id, codec.encode(blog));
+            if(withAuthors){
+                UserDTO author = new UserDTO();
+                author.setId(1000 + id);
+                author.setNickName("user" + author.getId());
+                redis.set(RedisConstants.CACHE_USER_KEY + author.getId(), codec.encode(author));
+            }
+            if(id % 2 == 0){
+                redis.zAdd(RedisConstants.BLOG_LIKED_KEY + id, String.valueOf(CURRENT_USER));
+            }
+            ids.add(id);
+        }
+        when(blogHotRanking.page(1, SystemConstants.MAX_PAGE_SIZE)).thenReturn(ids);
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.MockRedis;
+import com.hmdp.utils.ShopGeoIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 多类型附近商铺的多路归并，以及附近商铺通过批量缓存查询补全时的数据库查询次数
+ */
+class ShopServiceImplTest {
+    private final MockRedis redis = new MockRedis();
+    //每次数据库查询的商铺id
+    private final List<List<Long>> shopQueries = new ArrayList<>();
+    private ShopServiceImpl shopService;
+
+    @BeforeEach
+    void setUp(){
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectBatchIds(anyCollection())).thenAnswer(invocation -> {
+            List<Long> ids = new ArrayList<>();
+            for(Object id : (Collection<?>) invocation.getArgument(0)){
+                ids.add((Long) id);
+            }
+            shopQueries.add(ids);
+            //数据库返回的顺序与id顺序无关
+            List<Shop> shops = ids.stream().map(id -> {
+                Shop shop = new Shop();
+                shop.setId(id);
+                shop.setName("shop" + id);
+                return shop;
+            }).collect(Collectors.toList());
+            Collections.reverse(shops);
+            return shops;
+        });
+        shopService = new ShopServiceImpl();
+        ReflectionTestUtils.setField(shopService, "baseMapper", shopMapper);
+        ReflectionTestUtils.setField(shopService, "cacheClient", redis.cacheClient(new JsonCacheCodec()));
+    }
+
+    @Test
+    void loadShopsQueriesOnlyCacheMisses(){
+        //第一次请求全部未命中，一次查询数据库
+        List<Shop> first = loadShops(hits(1, 10));
+        assertEquals(longs(1, 10), first.stream().map(Shop::getId).collect(Collectors.toList()));
+        assertEquals(1, shopQueries.size());
+        //结果按距离排序并设置距离
+        for(int i = 0; i < first.size(); i++){
+            assertEquals(first.get(i).getId() * 10.0, first.get(i).getDistance());
+        }
+        //同一页再次请求不查询数据库
+        loadShops(hits(1, 10));
+        assertEquals(1, shopQueries.size());
+        //与上一页重叠的一页只查询未命中的商铺
+        loadShops(hits(6, 15));
+        assertEquals(2, shopQueries.size());
+        assertEquals(longs(11, 15), shopQueries.get(1));
+    }
+
+    @Test
+    void dbQueriesPerRequestBeforeAndAfter(){
+        //100个商铺，300次随机翻页请求，每页10个
+        //改造前每次请求都执行一次 WHERE id IN (...) ORDER BY FIELD(id, ...)
+        Random random = new Random(5);
+        int requests = 300;
+        for(int i = 0; i < requests; i++){
+            int from = 1 + random.nextInt(91);
+            loadShops(hits(from, from + 9));
+        }
+        //改造后每个商铺最多从数据库加载一次
+        long loaded = shopQueries.stream().mapToLong(List::size).sum();
+        assertEquals(loaded, shopQueries.stream().flatMap(List::stream).distinct().count());
+        assertTrue(shopQueries.size() < requests / 10);
+    }
+
+    @Test
+    void mergeNearestMatchesSortedUnion(){
+        Random random = new Random(11);
+        for(int round = 0; round < 200; round++){
+            List<List<ShopGeoIndex.GeoHit>> lists = new ArrayList<>();
+            List<ShopGeoIndex.GeoHit> all = new ArrayList<>();
+            long shopId = 1;
+            int types = 1 + random.nextInt(6);
+            for(int t = 0; t < types; t++){
+                List<ShopGeoIndex.GeoHit> hits = new ArrayList<>();
+                int size = random.nextInt(15);
+                for(int i = 0; i < size; i++){
+                    //距离取整，制造相同距离的商铺
+                    hits.add(new ShopGeoIndex.GeoHit(shopId++, random.nextInt(50)));
+                }
+                hits.sort(ShopGeoIndex.ORDER);
+                lists.add(hits);
+                all.addAll(hits);
+            }
+            all.sort(ShopGeoIndex.ORDER);
+            int k = 1 + random.nextInt(30);
+            List<ShopGeoIndex.GeoHit> merged = mergeNearest(lists, k);
+            assertEquals(ids(all.subList(0, Math.min(k, all.size()))), ids(merged));
+        }
+    }
+
+    @Test
+    void mergeNearestHandlesEmptyLists(){
+        assertTrue(mergeNearest(Collections.emptyList(), 10).isEmpty());
+        List<List<ShopGeoIndex.GeoHit>> lists = List.of(
+                Collections.emptyList(),
+                List.of(new ShopGeoIndex.GeoHit(2, 5), new ShopGeoIndex.GeoHit(4, 9)),
+                Collections.emptyList(),
+                List.of(new ShopGeoIndex.GeoHit(1, 5)));
+        assertEquals(List.of(1L, 2L, 4L), ids(mergeNearest(lists, 10)));
+        assertEquals(List.of(1L), ids(mergeNearest(lists, 1)));
+    }
+
+    private List<Shop> loadShops(List<ShopGeoIndex.GeoHit> hits){
+        return ReflectionTestUtils.invokeMethod(shopService, "loadShops", hits);
+    }
+
+    //id为from到to的商铺，距离为id*10米
+    private static List<ShopGeoIndex.GeoHit> hits(long from, long to){
+        List<ShopGeoIndex.GeoHit> hits = new ArrayList<>();
+        for(long id = from; id <= to; id++){
+            hits.add(new ShopGeoIndex.GeoHit(id, id * 10.0));
+        }
+        return hits;
+    }
+
+    private static List<Long> longs(long from, long to){
+        List<Long> ids = new ArrayList<>();
+        for(long id = from; id <= to; id++){
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static List<ShopGeoIndex.GeoHit> mergeNearest(List<List<ShopGeoIndex.GeoHit>> lists, int k){
+        return ReflectionTestUtils.invokeMethod(ShopServiceImpl.class, "mergeNearest", lists, k);
+    }
+
+    private static List<Long> ids(List<ShopGeoIndex.GeoHit> hits){
+        return hits.stream().map(ShopGeoIndex.GeoHit::getShopId).collect(Collectors.toList());
+    }
+}
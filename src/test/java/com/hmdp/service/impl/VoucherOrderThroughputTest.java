@@ -0,0 +1,85 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 订单落库吞吐与批量大小的关系，需要可用的mysql和redis（连接配置与应用相同，可用-D覆盖）：
+ * mvn test -Dtest=VoucherOrderThroughputTest -Dbenchmark.db=true -Dspring.datasource.url=... -Dspring.data.redis.host=...
+ * 批量大小为0表示逐条调用createVoucherOrder（查询一人一单、扣减库存、INSERT各一次），作为对照
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark.db", matches = "true")
+class VoucherOrderThroughputTest {
+    private static final long VOUCHER_ID = 990_000_001L;
+    private static final long ORDER_ID_BASE = 990_000_000_000L;
+    private static final int ORDERS = 5_000;
+    private static final int[] BATCH_SIZES = {0, 1, 10, 100, 500};
+
+    @Autowired
+    private IVoucherOrderService voucherOrderService;
+    @Autowired
+    private ISeckillVoucherService seckillVoucherService;
+
+    @AfterEach
+    void tearDown(){
+        cleanUp();
+    }
+
+    @Test
+    void ordersPerSecondByBatchSize(){
+        long orderId = ORDER_ID_BASE;
+        for(int batchSize : BATCH_SIZES){
+            cleanUp();
+            SeckillVoucher voucher = new SeckillVoucher();
+            voucher.setVoucherId(VOUCHER_ID);
+            voucher.setStock(ORDERS);
+            voucher.setBeginTime(LocalDateTime.now());
+            voucher.setEndTime(LocalDateTime.now().plusDays(1));
+            seckillVoucherService.save(voucher);
+
+            List<VoucherOrder> orders = new ArrayList<>(ORDERS);
+            for(int i = 0; i < ORDERS; i++){
+                VoucherOrder order = new VoucherOrder();
+                order.setId(orderId++);
+                order.setUserId((long) i + 1);
+                order.setVoucherId(VOUCHER_ID);
+                orders.add(order);
+            }
+            long start = System.nanoTime();
+            if(batchSize == 0){
+                orders.forEach(voucherOrderService::createVoucherOrder);
+            }else{
+                for(int from = 0; from < ORDERS; from += batchSize){
+                    voucherOrderService.createVoucherOrders(orders.subList(from, Math.min(from + batchSize, ORDERS)));
+                }
+            }
+            long nanos = System.nanoTime() - start;
+
+            //全部落库且库存扣减为0
+            assertEquals(ORDERS, voucherOrderService.count(new QueryWrapper<VoucherOrder>().eq("voucher_id", VOUCHER_ID)));
+            assertEquals(0, seckillVoucherService.getById(VOUCHER_ID).getStock());
+            System.out.printf("batch=%-4s orders=%d elapsed=%dms throughput=%.0f orders/s%n",
+                    batchSize == 0 ? "each" : batchSize, ORDERS, nanos / 1_000_000, ORDERS * 1e9 / nanos);
+        }
+    }
+
+    private void cleanUp(){
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", VOUCHER_ID));
+        seckillVoucherService.removeById(VOUCHER_ID);
+    }
+}
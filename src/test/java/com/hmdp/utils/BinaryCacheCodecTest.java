@@ -0,0 +1,139 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 二进制编解码的往返一致性、格式版本，以及与fastjson的大小和解码耗时对比
+ */
+class BinaryCacheCodecTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 5, 1, 12, 30, 15);
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    @Test
+    void roundTrip(){
+        Shop shop = shop(1L);
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+        Blog blog = new Blog().setId(2L).setShopId(1L).setUserId(3L).setIcon("/icon.jpg").setName("用户")
+                .setIsLike(true).setTitle("标题").setImages("/1.jpg,/2.jpg").setContent("内容")
+                .setLiked(10).setComments(2).setCreateTime(TIME).setUpdateTime(TIME);
+        assertEquals(blog, codec.decode(codec.encode(blog), Blog.class));
+        UserDTO user = new UserDTO();
+        user.setId(3L);
+        user.setNickName("用户");
+        user.setIcon("");
+        assertEquals(user, codec.decode(codec.encode(user), UserDTO.class));
+    }
+
+    @Test
+    void roundTripWithNullFields(){
+        Shop shop = new Shop().setId(1L);
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+        Blog blog = new Blog().setId(2L).setIsLike(false);
+        assertEquals(blog, codec.decode(codec.encode(blog), Blog.class));
+        assertEquals(new UserDTO(), codec.decode(codec.encode(new UserDTO()), UserDTO.class));
+    }
+
+    @Test
+    void otherTypesUseJson(){
+        List<Long> ids = List.of(1L, 2L, 3L);
+        byte[] bytes = codec.encode(ids);
+        assertEquals("[1,2,3]", new String(bytes, StandardCharsets.UTF_8));
+        assertTrue(codec.canDecode(bytes));
+        //json格式写入的Shop也可以读取
+        assertEquals(shop(1L), codec.decode(jsonCodec.encode(shop(1L)), Shop.class));
+    }
+
+    @Test
+    void unknownVersionCannotBeDecoded(){
+        byte[] bytes = codec.encode(shop(1L));
+        assertTrue(codec.canDecode(bytes));
+        //其他版本
+        byte[] other = bytes.clone();
+        other[1]++;
+        assertFalse(codec.canDecode(other));
+        //未带版本号的旧格式：MAGIC | 类型标识 | 各字段
+        byte[] legacy = new byte[bytes.length - 1];
+        legacy[0] = 0;
+        System.arraycopy(bytes, 2, legacy, 1, bytes.length - 2);
+        assertFalse(codec.canDecode(legacy));
+    }
+
+    @Test
+    void unknownVersionIsCacheMiss(){
+        MockRedis redis = new MockRedis();
+        CacheClient cacheClient = redis.cacheClient(codec);
+        byte[] other = codec.encode(shop(1L).setName("旧数据"));
+        other[1]++;
+        redis.set(RedisConstants.CACHE_SHOP_KEY + 1, other);
+        AtomicInteger dbQueries = new AtomicInteger();
+        for(int i = 0; i < 2; i++){
+            Shop shop = cacheClient.queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY, 1L, Shop.class, id -> {
+                dbQueries.incrementAndGet();
+                return shop(id);
+            }, 30L, TimeUnit.MINUTES);
+            assertEquals(shop(1L), shop);
+        }
+        //第一次按未命中查询数据库并以当前版本覆盖，第二次命中redis
+        assertEquals(1, dbQueries.get());
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark.codec", matches = "true")
+    void compareWithFastjson(){
+        List<Shop> shops = new ArrayList<>();
+        for(long id = 1; id <= 1000; id++){
+            shops.add(shop(id));
+        }
+        run("fastjson", jsonCodec, shops);
+        run("binary", codec, shops);
+    }
+
+    private static void run(String name, CacheCodec codec, List<Shop> shops){
+        List<byte[]> encoded = shops.stream().map(codec::encode).toList();
+        long bytes = encoded.stream().mapToLong(b -> b.length).sum();
+        int rounds = 200;
+        //预热
+        for(int r = 0; r < rounds; r++){
+            encoded.forEach(b -> codec.decode(b, Shop.class));
+        }
+        long checksum = 0;
+        long start = System.nanoTime();
+        for(int r = 0; r < rounds; r++){
+            for(byte[] b : encoded){
+                checksum += codec.decode(b, Shop.class).getId();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-8s %.1f bytes/shop, decode %.0f ns/op (checksum %d)%n",
+                name, (double) bytes / shops.size(), (double) nanos / rounds / shops.size(), checksum);
+    }
+
+    private static Shop shop(Long id){
+        char[] images = new char[120];
+        Arrays.fill(images, 'a');
+        return new Shop().setId(id).setName("103茶餐厅" + id).setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/" + new String(images) + ".jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L)
+                .setSold(4215).setComments(3035).setScore(37).setOpenHours("10:00-22:00")
+                .setCreateTime(TIME).setUpdateTime(TIME);
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 重建任务的提交上限：并发提交时排队和正在重建的任务数不超过队列容量加线程数，任务结束后释放
+ */
+class CacheRefresherTest {
+    private CacheRefresher refresher;
+
+    @BeforeEach
+    void newRefresher(){
+        refresher = new CacheRefresher();
+        ReflectionTestUtils.setField(refresher, "threads", 1);
+        ReflectionTestUtils.setField(refresher, "queueCapacity", 2);
+        ReflectionTestUtils.setField(refresher, "maxTrackedKeys", 100L);
+        ReflectionTestUtils.invokeMethod(refresher, "init");
+    }
+
+    @AfterEach
+    void destroy(){
+        ReflectionTestUtils.invokeMethod(refresher, "destroy");
+    }
+
+    @Test
+    void concurrentSubmitsNeverExceedCapacity() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LongSupplier rebuild = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1L;
+        };
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for(int t = 0; t < threads; t++){
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                int accepted = 0;
+                for(int i = 0; i < 100; i++){
+                    if(refresher.submit("key" + thread + "-" + i, rebuild)){
+                        accepted++;
+                    }
+                }
+                return accepted;
+            }));
+        }
+        int accepted = 0;
+        for(Future<Integer> future : futures){
+            accepted += future.get();
+        }
+        executor.shutdown();
+        //1个正在重建，2个排队
+        assertEquals(3, accepted);
+        assertEquals(threads * 100 - 3, refresher.getDroppedCount());
+        assertTrue(refresher.getQueueSize() <= 2);
+
+        //重建结束后释放名额
+        release.countDown();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while(refresher.getRebuiltCount() < 3 && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        assertEquals(3, refresher.getRebuiltCount());
+        assertTrue(refresher.submit("after", () -> 1L));
+    }
+}
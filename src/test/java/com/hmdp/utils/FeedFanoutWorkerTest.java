@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 推送写入收件箱：新建的收件箱设置过期时间并写入不完整标记，已有的收件箱不变，收件箱和大V发件箱裁剪到最大长度，需要一个可写的redis（6.2及以上）：
+ * mvn test -Dtest=FeedFanoutWorkerTest -Dredis.host=127.0.0.1 -Dredis.port=6379
+ */
+@EnabledIfSystemProperty(named = "redis.host", matches = ".+")
+class FeedFanoutWorkerTest {
+    private static final long NEW_USER = 990_000_001L;
+    private static final long EXISTING_USER = 990_000_002L;
+    private static final long BIG_AUTHOR = 990_000_003L;
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+    private FollowMapper followMapper;
+    private FeedFanoutWorker worker;
+
+    @BeforeAll
+    static void setUp(){
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("redis.host"), Integer.getInteger("redis.port", 6379)));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void tearDown(){
+        connectionFactory.destroy();
+    }
+
+    @BeforeEach
+    void newWorker(){
+        followMapper = mock(FollowMapper.class);
+        worker = new FeedFanoutWorker(stringRedisTemplate, null, followMapper, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(worker, "inboxMaxLength", 3L);
+        ReflectionTestUtils.setField(worker, "outboxMaxLength", 3L);
+        ReflectionTestUtils.setField(worker, "bigAuthorFollowers", 10L);
+        ReflectionTestUtils.setField(worker, "inboxTtlDays", 30L);
+        ReflectionTestUtils.setField(worker, "slowPipelineMillis", 50L);
+        ReflectionTestUtils.setField(worker, "maxThrottleMillis", 1000L);
+    }
+
+    @AfterEach
+    void clean(){
+        stringRedisTemplate.delete(List.of(
+                RedisConstants.FEED_KEY + NEW_USER, RedisConstants.FEED_PARTIAL_KEY + NEW_USER,
+                RedisConstants.FEED_KEY + EXISTING_USER, RedisConstants.FEED_PARTIAL_KEY + EXISTING_USER,
+                RedisConstants.FEED_OUTBOX_KEY + BIG_AUTHOR));
+        stringRedisTemplate.opsForSet().remove(RedisConstants.FEED_BIG_AUTHORS_KEY, String.valueOf(BIG_AUTHOR));
+    }
+
+    @Test
+    void pushMarksOnlyCreatedInboxes(){
+        //已有的收件箱带有过期时间
+        stringRedisTemplate.opsForZSet().add(RedisConstants.FEED_KEY + EXISTING_USER, "1", 1);
+        stringRedisTemplate.expire(RedisConstants.FEED_KEY + EXISTING_USER, 1, TimeUnit.DAYS);
+
+        pushBatch(List.of(follow(NEW_USER), follow(EXISTING_USER)), "2", 2);
+
+        Long newTtl = stringRedisTemplate.getExpire(RedisConstants.FEED_KEY + NEW_USER, TimeUnit.DAYS);
+        assertTrue(newTtl != null && newTtl >= 29);
+        assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.FEED_PARTIAL_KEY + NEW_USER)));
+        Long existingTtl = stringRedisTemplate.getExpire(RedisConstants.FEED_KEY + EXISTING_USER, TimeUnit.HOURS);
+        assertTrue(existingTtl != null && existingTtl <= 24);
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.FEED_PARTIAL_KEY + EXISTING_USER)));
+        assertEquals(2L, stringRedisTemplate.opsForZSet().zCard(RedisConstants.FEED_KEY + EXISTING_USER));
+    }
+
+    @Test
+    void pushTrimsInboxToMaxLength(){
+        for(int i = 1; i <= 5; i++){
+            pushBatch(List.of(follow(NEW_USER)), String.valueOf(i), i);
+        }
+        //只保留最新的3条
+        assertEquals(List.of("5", "4", "3"), List.copyOf(
+                stringRedisTemplate.opsForZSet().reverseRange(RedisConstants.FEED_KEY + NEW_USER, 0, -1)));
+    }
+
+    @Test
+    void bigAuthorOutboxTrimmedToMaxLength(){
+        when(followMapper.selectCount(any())).thenReturn(10L);
+        for(int i = 1; i <= 5; i++){
+            ReflectionTestUtils.invokeMethod(worker, "fanout", BIG_AUTHOR, String.valueOf(i), (long) i);
+        }
+        //发件箱只保留最新的3条，并记录为大V
+        assertEquals(List.of("5", "4", "3"), List.copyOf(
+                stringRedisTemplate.opsForZSet().reverseRange(RedisConstants.FEED_OUTBOX_KEY + BIG_AUTHOR, 0, -1)));
+        assertTrue(Boolean.TRUE.equals(stringRedisTemplate.opsForSet()
+                .isMember(RedisConstants.FEED_BIG_AUTHORS_KEY, String.valueOf(BIG_AUTHOR))));
+    }
+
+    private void pushBatch(List<Follow> follows, String blogId, long timestamp){
+        ReflectionTestUtils.invokeMethod(worker, "pushBatch", follows, blogId, timestamp);
+    }
+
+    private static Follow follow(long userId){
+        return new Follow().setId(userId).setUserId(userId);
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 热点key的top-K统计、候选数量上限、衰减以及并发写入
+ */
+class HotKeySketchTest {
+    private static final Set<String> HOT_KEYS = Set.of("hot0", "hot1", "hot2", "hot3", "hot4");
+
+    @Test
+    void findsHotKeysAmongColdKeys(){
+        HotKeySketch sketch = new HotKeySketch(4096, 5);
+        int cold = 0;
+        for(int round = 0; round < 1000; round++){
+            for(String key : HOT_KEYS){
+                sketch.add(key);
+            }
+            //每个冷key只访问一次
+            for(int i = 0; i < 5; i++){
+                sketch.add("cold" + cold++);
+            }
+        }
+        Map<String, Long> top = sketch.top();
+        assertEquals(HOT_KEYS, top.keySet());
+        //按估算次数从高到低
+        List<Long> counts = new ArrayList<>(top.values());
+        for(int i = 1; i < counts.size(); i++){
+            assertTrue(counts.get(i - 1) >= counts.get(i));
+        }
+    }
+
+    @Test
+    void candidatesNeverExceedTopK(){
+        HotKeySketch sketch = new HotKeySketch(1024, 3);
+        for(int i = 0; i < 10_000; i++){
+            sketch.add("key" + i % 50);
+            assertTrue(sketch.top().size() <= 3);
+        }
+    }
+
+    @Test
+    void countsDecayAfterInterval(){
+        //衰减间隔为 width * 10 = 640 次
+        HotKeySketch sketch = new HotKeySketch(64, 10);
+        for(int i = 0; i < 100; i++){
+            sketch.add("a");
+        }
+        assertEquals(100L, sketch.top().get("a"));
+        for(int i = 0; i < 540; i++){
+            sketch.add("cold" + i);
+        }
+        assertEquals(50L, sketch.top().get("a"));
+    }
+
+    @Test
+    void concurrentAdds() throws Exception {
+        HotKeySketch sketch = new HotKeySketch(4096, 5);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < threads; t++){
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for(int round = 0; round < 5000; round++){
+                    for(String key : HOT_KEYS){
+                        sketch.add(key);
+                    }
+                    sketch.add("cold" + thread + "-" + round);
+                }
+            }));
+        }
+        for(Future<?> future : futures){
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(HOT_KEYS, sketch.top().keySet());
+    }
+}
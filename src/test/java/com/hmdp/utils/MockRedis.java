@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用mock模拟的redis，支持GET、MGET、SET和ZSCORE，用于统计查询路径上的redis往返次数
+ * 每次execute/executePipelined记为一次往返，连接上执行的每个命令记为一个命令
+ */
+public class MockRedis {
+    private final Map<String, byte[]> values = new HashMap<>();
+    private final Map<String, Set<String>> zSets = new HashMap<>();
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private final AtomicInteger commands = new AtomicInteger();
+    private final StringRedisTemplate template;
+
+    public MockRedis() {
+        template = mockTemplate();
+    }
+
+    public StringRedisTemplate template(){
+        return template;
+    }
+
+    /**
+     * 基于该redis创建CacheClient，本地缓存大小为0，每次查询都访问redis，布隆过滤器放行所有ID
+     */
+    public CacheClient cacheClient(CacheCodec codec){
+        IdBloomFilter idBloomFilter = mock(IdBloomFilter.class);
+        when(idBloomFilter.mightContain(anyString(), any())).thenReturn(true);
+        when(idBloomFilter.mightContainAll(anyString(), anyList())).thenAnswer(invocation -> invocation.getArgument(1));
+        CacheClient cacheClient = new CacheClient(template, mock(RedisMessageListenerContainer.class),
+                idBloomFilter, codec, mock(CacheRefresher.class), new CacheMetrics(new SimpleMeterRegistry(), 0, 20));
+        ReflectionTestUtils.invokeMethod(cacheClient, "init");
+        return cacheClient;
+    }
+
+    public void set(String key, byte[] value){
+        values.put(key, value);
+    }
+
+    public void zAdd(String key, String member){
+        zSets.computeIfAbsent(key, k -> new HashSet<>()).add(member);
+    }
+
+    public void clear(){
+        values.clear();
+        zSets.clear();
+    }
+
+    public void resetCounters(){
+        roundTrips.set(0);
+        commands.set(0);
+    }
+
+    public int roundTrips(){
+        return roundTrips.get();
+    }
+
+    public int commands(){
+        return commands.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private StringRedisTemplate mockTemplate(){
+        //pipeline中的命令结果按顺序收集
+        List<Object> pipelineResults = new ArrayList<>();
+        RedisStringCommands stringCommands = mock(RedisStringCommands.class);
+        when(stringCommands.get(any(byte[].class))).thenAnswer(invocation -> {
+            commands.incrementAndGet();
+            return values.get(string(invocation.getArgument(0)));
+        });
+        when(stringCommands.mGet(any(byte[][].class))).thenAnswer(invocation -> {
+            commands.incrementAndGet();
+            List<byte[]> result = new ArrayList<>();
+            for(Object key : invocation.getArguments()){
+                result.add(values.get(string(key)));
+            }
+            return result;
+        });
+        when(stringCommands.set(any(byte[].class), any(byte[].class), any(), any())).thenAnswer(invocation -> {
+            commands.incrementAndGet();
+            values.put(string(invocation.getArgument(0)), invocation.getArgument(1));
+            pipelineResults.add(true);
+            return true;
+        });
+        RedisZSetCommands zSetCommands = mock(RedisZSetCommands.class);
+        when(zSetCommands.zScore(any(byte[].class), any(byte[].class))).thenAnswer(invocation -> {
+            commands.incrementAndGet();
+            Set<String> members = zSets.get(string(invocation.getArgument(0)));
+            pipelineResults.add(members != null && members.contains(string(invocation.getArgument(1))) ? 1.0 : null);
+            return null;
+        });
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        when(connection.zSetCommands()).thenReturn(zSetCommands);
+
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation -> {
+            roundTrips.incrementAndGet();
+            return ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+        });
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            roundTrips.incrementAndGet();
+            pipelineResults.clear();
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            return new ArrayList<>(pipelineResults);
+        });
+        return stringRedisTemplate;
+    }
+
+    private static String string(Object bytes){
+        return new String((byte[]) bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,112 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 三种ID生成方式的吞吐和每个ID的内存分配对比，需要一个可写的redis：
+ * mvn test -Dtest=RedisWorkerBenchmarkTest -Dredis.host=127.0.0.1 -Dredis.port=6379
+ * incr：每个ID一次INCR；segment：号段模式；snowflake：本地雪花算法
+ */
+@EnabledIfSystemProperty(named = "redis.host", matches = ".+")
+class RedisWorkerBenchmarkTest {
+    private static final String KEY_PREFIX = "benchmark";
+    private static final int THREADS = 8;
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+
+    @BeforeAll
+    static void setUp(){
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("redis.host"), Integer.getInteger("redis.port", 6379)));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void tearDown(){
+        stringRedisTemplate.delete(stringRedisTemplate.keys("incr:" + KEY_PREFIX + ":*"));
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void compareIdGenerators() throws Exception {
+        run("incr", worker(0, false), 20_000);
+        run("segment", worker(1000, false), 1_000_000);
+        run("snowflake", worker(0, true), 1_000_000);
+    }
+
+    private RedisWorker worker(int segmentSize, boolean snowflake){
+        RedisWorker worker = new RedisWorker(stringRedisTemplate);
+        ReflectionTestUtils.setField(worker, "segmentSize", segmentSize);
+        ReflectionTestUtils.setField(worker, "snowflake", snowflake);
+        ReflectionTestUtils.invokeMethod(worker, "init");
+        return worker;
+    }
+
+    private void run(String name, RedisWorker worker, int count) throws Exception {
+        try {
+            //预热
+            for(int i = 0; i < count / 10; i++){
+                worker.nextId(KEY_PREFIX);
+            }
+            //单线程吞吐和每个ID分配的字节数
+            com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().threadId();
+            long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for(int i = 0; i < count; i++){
+                worker.nextId(KEY_PREFIX);
+            }
+            long nanos = System.nanoTime() - start;
+            allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocated;
+
+            //多线程吞吐，同时校验ID不重复
+            Set<Long> ids = ConcurrentHashMap.newKeySet();
+            int perThread = count / THREADS;
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            List<Future<?>> futures = new ArrayList<>();
+            long concurrentStart = System.nanoTime();
+            for(int t = 0; t < THREADS; t++){
+                futures.add(executor.submit(() -> {
+                    long[] local = new long[perThread];
+                    for(int i = 0; i < perThread; i++){
+                        local[i] = worker.nextId(KEY_PREFIX);
+                    }
+                    for(long id : local){
+                        ids.add(id);
+                    }
+                }));
+            }
+            for(Future<?> future : futures){
+                future.get();
+            }
+            long concurrentNanos = System.nanoTime() - concurrentStart;
+            executor.shutdown();
+            assertEquals(perThread * THREADS, ids.size());
+
+            System.out.printf("%-9s 1 thread: %,.0f ids/s %.1f bytes/id | %d threads: %,.0f ids/s%n",
+                    name, count * 1e9 / nanos, (double) allocated / count, THREADS, perThread * THREADS * 1e9 / concurrentNanos);
+        } finally {
+            ReflectionTestUtils.invokeMethod(worker, "destroy");
+        }
+    }
+}
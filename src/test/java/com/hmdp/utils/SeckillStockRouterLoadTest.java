@@ -0,0 +1,176 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 单key库存与分片库存的秒杀压测，需要一个可写的redis：
+ * mvn test -Dtest=SeckillStockRouterLoadTest -Dredis.host=127.0.0.1 -Dredis.port=6379
+ * 另外指定 -Dredis.cluster=127.0.0.1:7001,127.0.0.1:7002,127.0.0.1:7003 时连接集群，校验脚本不跨slot
+ * 每一轮都校验不超卖、一人一单，并统计每个请求的脚本调用次数和脚本调用最多的节点所占比例
+ * 分片的收益是把热点库存分散到多个节点，单节点或单核环境下吞吐不会随分片数提高
+ */
+@EnabledIfSystemProperty(named = "redis.host", matches = ".+")
+class SeckillStockRouterLoadTest {
+    private static final String ORDER_STREAM = "stream.orders.loadtest";
+    private static final int THREADS = 32;
+    private static final int STOCK = 20_000;
+    //每个用户连续请求两次，第二次应当被判定为重复下单，库存售罄后的请求返回库存不足
+    private static final int USERS = 30_000;
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+
+    @BeforeAll
+    static void setUp(){
+        String cluster = System.getProperty("redis.cluster");
+        connectionFactory = cluster == null || cluster.isEmpty()
+                ? new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                        System.getProperty("redis.host"), Integer.getInteger("redis.port", 6379)))
+                : new LettuceConnectionFactory(new RedisClusterConfiguration(Arrays.asList(cluster.split(","))));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void tearDown(){
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void compareSingleKeyAndShards() throws Exception {
+        long voucherId = 900_000_000L;
+        //预热一轮，不输出结果
+        run(voucherId++, 1, false);
+        for (int shards : new int[]{1, 4, 8}) {
+            run(voucherId++, shards, true);
+        }
+    }
+
+    private void run(long voucherId, int shards, boolean print) throws Exception {
+        cleanUp(voucherId, shards);
+        SeckillStockRouter router = new SeckillStockRouter(stringRedisTemplate, ORDER_STREAM);
+        router.saveStock(voucherId, STOCK, shards);
+        Map<String, Long> evalsBefore = evalCalls();
+        AtomicLong orderId = new AtomicLong();
+        AtomicLong success = new AtomicLong();
+        AtomicLong duplicate = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long begin = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (long i = thread; i < USERS * 2L; i += THREADS) {
+                    long result = router.tryDeduct(voucherId, i / 2, orderId.incrementAndGet());
+                    if(result == SeckillStockRouter.OK){
+                        success.incrementAndGet();
+                    }else if(result == SeckillStockRouter.DUPLICATE){
+                        duplicate.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long nanos = System.nanoTime() - begin;
+        executor.shutdown();
+        Map<String, Long> evalsAfter = evalCalls();
+        long evals = 0;
+        long maxNodeEvals = 0;
+        for (Map.Entry<String, Long> entry : evalsAfter.entrySet()) {
+            long nodeEvals = entry.getValue() - evalsBefore.getOrDefault(entry.getKey(), 0L);
+            evals += nodeEvals;
+            maxNodeEvals = Math.max(maxNodeEvals, nodeEvals);
+        }
+
+        //不超卖：成功数等于库存，各分片库存扣减到0
+        assertEquals(STOCK, success.get());
+        long remain = 0;
+        long ordered = 0;
+        for (int i = 0; i < shards; i++) {
+            remain += Long.parseLong(stringRedisTemplate.opsForValue().get(SeckillStockRouter.stockKey(voucherId, shards, i)));
+            Long size = stringRedisTemplate.opsForSet().size(SeckillStockRouter.orderKey(voucherId, shards, i));
+            ordered += size == null ? 0 : size;
+        }
+        assertEquals(0, remain);
+        //一人一单：下单集合中的用户数等于成功数
+        assertEquals(STOCK, ordered);
+        if(print){
+            System.out.printf("shards=%d requests=%d success=%d duplicate=%d elapsed=%dms throughput=%.0f req/s "
+                            + "evals/request=%.2f busiest node=%.0f%% of evals%n",
+                    shards, USERS * 2, success.get(), duplicate.get(), nanos / 1_000_000, USERS * 2 / (nanos / 1e9),
+                    (double) evals / (USERS * 2), maxNodeEvals * 100.0 / evals);
+        }
+        cleanUp(voucherId, shards);
+    }
+
+    private void cleanUp(long voucherId, int shards){
+        List<String> keys = new ArrayList<>(List.of(RedisConstants.SECKILL_SHARDS_KEY + voucherId));
+        for (int i = 0; i < shards; i++) {
+            keys.add(SeckillStockRouter.stockKey(voucherId, shards, i));
+            keys.add(SeckillStockRouter.orderKey(voucherId, shards, i));
+            keys.add(SeckillStockRouter.streamKey(ORDER_STREAM, shards, i));
+        }
+        stringRedisTemplate.delete(keys);
+        Set<String> left = stringRedisTemplate.keys("seckill:*" + voucherId + "*");
+        if(left != null && !left.isEmpty()){
+            stringRedisTemplate.delete(left);
+        }
+    }
+
+    //每个节点累计的脚本调用次数（EVAL和EVALSHA）
+    private Map<String, Long> evalCalls(){
+        Map<String, Long> calls = new HashMap<>();
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            if(connection instanceof RedisClusterConnection clusterConnection){
+                for (RedisClusterNode node : clusterConnection.clusterGetNodes()) {
+                    if(node.isMaster()){
+                        calls.put(node.asString(), evalCalls(clusterConnection.serverCommands().info(node, "commandstats")));
+                    }
+                }
+            }else{
+                calls.put("standalone", evalCalls(connection.serverCommands().info("commandstats")));
+            }
+        } finally {
+            connection.close();
+        }
+        return calls;
+    }
+
+    private static long evalCalls(Properties info){
+        long calls = 0;
+        for (String command : new String[]{"cmdstat_eval", "cmdstat_evalsha"}) {
+            String stat = info.getProperty(command);
+            if(stat != null){
+                calls += Long.parseLong(stat.substring("calls=".length(), stat.indexOf(',')));
+            }
+        }
+        return calls;
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 本地位置索引与redis GEOSEARCH的延迟对比，需要一个可写的redis：
+ * mvn test -Dtest=ShopGeoIndexBenchmarkTest -Dredis.host=127.0.0.1 -Dredis.port=6379
+ * 分别测量第1页和第20页（每页10个）：GEOSEARCH需要查询前 页码*10 个，本地索引按游标只取一页
+ */
+@EnabledIfSystemProperty(named = "redis.host", matches = ".+")
+class ShopGeoIndexBenchmarkTest {
+    private static final String GEO_KEY = "shop:geo:benchmark";
+    private static final int SHOPS = 20_000;
+    private static final int QUERIES = 2_000;
+    private static final int PAGE_SIZE = 10;
+    private static final double RADIUS = 5000;
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+
+    @BeforeAll
+    static void setUp(){
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("redis.host"), Integer.getInteger("redis.port", 6379)));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void tearDown(){
+        stringRedisTemplate.delete(GEO_KEY);
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void compareWithGeoSearch(){
+        List<Shop> shops = ShopGeoIndexTest.randomShops(SHOPS, 1, 0.2, 1);
+        ShopGeoIndex index = ShopGeoIndexTest.newIndex();
+        Map<String, Point> locations = new HashMap<>();
+        for(Shop shop : shops){
+            ShopGeoIndexTest.put(index, shop);
+            locations.put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+        }
+        stringRedisTemplate.delete(GEO_KEY);
+        stringRedisTemplate.opsForGeo().add(GEO_KEY, locations);
+
+        Random random = new Random(3);
+        double[][] points = new double[QUERIES][];
+        for(int i = 0; i < QUERIES; i++){
+            points[i] = new double[]{ShopGeoIndexTest.CENTER_X + (random.nextDouble() - 0.5) * 0.1,
+                    ShopGeoIndexTest.CENTER_Y + (random.nextDouble() - 0.5) * 0.1};
+        }
+        //同一页的结果一致，redis中的坐标经过geohash编码，距离误差在1米以内
+        for(int i = 0; i < 100; i++){
+            List<ShopGeoIndex.GeoHit> local = localPage(index, points[i]);
+            List<ShopGeoIndex.GeoHit> redis = geoSearchPage(points[i], 1);
+            assertEquals(redis.size(), local.size());
+            for(int j = 0; j < local.size(); j++){
+                assertEquals(redis.get(j).getDistance(), local.get(j).getDistance(), 1.0);
+            }
+        }
+        for(int page : new int[]{1, 20}){
+            //预热
+            run(index, points, page);
+            long[] nanos = run(index, points, page);
+            System.out.printf("page=%d local=%dns/op geosearch=%dns/op%n",
+                    page, nanos[0] / QUERIES, nanos[1] / QUERIES);
+        }
+    }
+
+    //返回 [本地索引总耗时, GEOSEARCH总耗时]，本地索引的游标由客户端保存，只计入读取第page页的耗时
+    private long[] run(ShopGeoIndex index, double[][] points, int page){
+        ShopGeoIndex.GeoHit[] cursors = new ShopGeoIndex.GeoHit[points.length];
+        if(page > 1){
+            for(int i = 0; i < points.length; i++){
+                List<ShopGeoIndex.GeoHit> previous = index.nearest(1L, points[i][0], points[i][1], RADIUS,
+                        (page - 1) * PAGE_SIZE, null, null);
+                cursors[i] = previous.get(previous.size() - 1);
+            }
+        }
+        long local = 0;
+        long redis = 0;
+        for(int i = 0; i < points.length; i++){
+            ShopGeoIndex.GeoHit cursor = cursors[i];
+            long start = System.nanoTime();
+            index.nearest(1L, points[i][0], points[i][1], RADIUS, PAGE_SIZE,
+                    cursor == null ? null : cursor.getDistance(), cursor == null ? null : cursor.getShopId());
+            local += System.nanoTime() - start;
+            start = System.nanoTime();
+            geoSearchPage(points[i], page);
+            redis += System.nanoTime() - start;
+        }
+        return new long[]{local, redis};
+    }
+
+    private List<ShopGeoIndex.GeoHit> localPage(ShopGeoIndex index, double[] point){
+        return index.nearest(1L, point[0], point[1], RADIUS, PAGE_SIZE, null, null);
+    }
+
+    private List<ShopGeoIndex.GeoHit> geoSearchPage(double[] point, int page){
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                GEO_KEY, GeoReference.fromCoordinate(point[0], point[1]), new Distance(RADIUS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit((long) page * PAGE_SIZE));
+        List<ShopGeoIndex.GeoHit> hits = new ArrayList<>();
+        results.getContent().stream().skip((long) (page - 1) * PAGE_SIZE).forEach(result -> hits.add(
+                new ShopGeoIndex.GeoHit(Long.parseLong(result.getContent().getName()), result.getDistance().getValue())));
+        return hits;
+    }
+}
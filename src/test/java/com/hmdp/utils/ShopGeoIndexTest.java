@@ -0,0 +1,167 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 本地位置索引的查询结果与逐个计算距离的结果一致
+ */
+class ShopGeoIndexTest {
+    static final double CENTER_X = 120.15;
+    static final double CENTER_Y = 30.25;
+    private static final double EARTH_RADIUS = 6372797.560856;
+
+    private ShopGeoIndex index;
+    private List<Shop> shops;
+
+    @BeforeEach
+    void setUp(){
+        index = newIndex();
+        shops = randomShops(2000, 3, 0.1, 42);
+        shops.forEach(shop -> put(index, shop));
+    }
+
+    @Test
+    void nearestMatchesBruteForce(){
+        Random random = new Random(7);
+        for(int i = 0; i < 50; i++){
+            long typeId = 1 + random.nextInt(3);
+            double x = CENTER_X + (random.nextDouble() - 0.5) * 0.1;
+            double y = CENTER_Y + (random.nextDouble() - 0.5) * 0.1;
+            double radius = 200 + random.nextDouble() * 8000;
+            int limit = 1 + random.nextInt(60);
+            assertSame(bruteForce(typeId, x, y, radius, limit, null), index.nearest(typeId, x, y, radius, limit, null, null));
+        }
+    }
+
+    @Test
+    void cursorPagesCoverAllShopsInOrder(){
+        double radius = 3000;
+        List<ShopGeoIndex.GeoHit> expected = bruteForce(1L, CENTER_X, CENTER_Y, radius, Integer.MAX_VALUE, null);
+        List<ShopGeoIndex.GeoHit> paged = new ArrayList<>();
+        ShopGeoIndex.GeoHit last = null;
+        while(true){
+            List<ShopGeoIndex.GeoHit> page = index.nearest(1L, CENTER_X, CENTER_Y, radius, 7,
+                    last == null ? null : last.getDistance(), last == null ? null : last.getShopId());
+            if(page.isEmpty()){
+                break;
+            }
+            paged.addAll(page);
+            last = page.get(page.size() - 1);
+        }
+        assertFalse(expected.isEmpty());
+        assertSame(expected, paged);
+    }
+
+    @Test
+    void cursorBreaksDistanceTiesByShopId(){
+        ShopGeoIndex tied = newIndex();
+        //同一位置的三个商铺距离相同，按商铺id翻页
+        for(long id = 1; id <= 3; id++){
+            put(tied, shop(id, 1L, CENTER_X + 0.001, CENTER_Y));
+        }
+        List<ShopGeoIndex.GeoHit> first = tied.nearest(1L, CENTER_X, CENTER_Y, 1000, 2, null, null);
+        assertEquals(List.of(1L, 2L), ids(first));
+        List<ShopGeoIndex.GeoHit> second = tied.nearest(1L, CENTER_X, CENTER_Y, 1000, 2,
+                first.get(1).getDistance(), first.get(1).getShopId());
+        assertEquals(List.of(3L), ids(second));
+    }
+
+    @Test
+    void updateMovesShopBetweenCellsAndTypes(){
+        ShopGeoIndex moving = newIndex();
+        put(moving, shop(1L, 1L, CENTER_X, CENTER_Y));
+        assertEquals(List.of(1L), ids(moving.nearest(1L, CENTER_X, CENTER_Y, 100, 10, null, null)));
+        //移动到约5km外并修改类型
+        put(moving, shop(1L, 2L, CENTER_X + 0.05, CENTER_Y));
+        assertTrue(moving.nearest(1L, CENTER_X, CENTER_Y, 10000, 10, null, null).isEmpty());
+        assertTrue(moving.nearest(2L, CENTER_X, CENTER_Y, 100, 10, null, null).isEmpty());
+        assertEquals(List.of(1L), ids(moving.nearest(2L, CENTER_X, CENTER_Y, 10000, 10, null, null)));
+        ReflectionTestUtils.invokeMethod(moving, "remove", 1L);
+        assertTrue(moving.nearest(2L, CENTER_X, CENTER_Y, 10000, 10, null, null).isEmpty());
+    }
+
+    @Test
+    void unknownTypeReturnsEmpty(){
+        assertTrue(index.nearest(99L, CENTER_X, CENTER_Y, 5000, 10, null, null).isEmpty());
+    }
+
+    static ShopGeoIndex newIndex(){
+        ShopGeoIndex index = new ShopGeoIndex(mock(ShopMapper.class), mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(index, "cellDegrees", 0.01);
+        return index;
+    }
+
+    static void put(ShopGeoIndex index, Shop shop){
+        ReflectionTestUtils.invokeMethod(index, "put", shop);
+    }
+
+    //在中心点附近span度的范围内随机生成商铺
+    static List<Shop> randomShops(int count, int types, double span, long seed){
+        Random random = new Random(seed);
+        List<Shop> shops = new ArrayList<>(count);
+        for(long id = 1; id <= count; id++){
+            shops.add(shop(id, 1 + random.nextInt(types), CENTER_X + (random.nextDouble() - 0.5) * span,
+                    CENTER_Y + (random.nextDouble() - 0.5) * span));
+        }
+        return shops;
+    }
+
+    static Shop shop(long id, long typeId, double x, double y){
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setTypeId(typeId);
+        shop.setX(x);
+        shop.setY(y);
+        return shop;
+    }
+
+    private List<ShopGeoIndex.GeoHit> bruteForce(long typeId, double x, double y, double radius, int limit,
+                                                 ShopGeoIndex.GeoHit cursor){
+        return shops.stream()
+                .filter(shop -> shop.getTypeId() == typeId)
+                .map(shop -> new ShopGeoIndex.GeoHit(shop.getId(), distance(x, y, shop.getX(), shop.getY())))
+                .filter(hit -> hit.getDistance() <= radius)
+                .filter(hit -> cursor == null || ShopGeoIndex.ORDER.compare(hit, cursor) > 0)
+                .sorted(ShopGeoIndex.ORDER)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private static void assertSame(List<ShopGeoIndex.GeoHit> expected, List<ShopGeoIndex.GeoHit> actual){
+        assertEquals(ids(expected), ids(actual));
+        for(int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance(), 1e-6);
+        }
+        List<ShopGeoIndex.GeoHit> sorted = new ArrayList<>(actual);
+        sorted.sort(Comparator.comparingDouble(ShopGeoIndex.GeoHit::getDistance));
+        assertEquals(ids(sorted), ids(actual));
+    }
+
+    static List<Long> ids(List<ShopGeoIndex.GeoHit> hits){
+        return hits.stream().map(ShopGeoIndex.GeoHit::getShopId).collect(Collectors.toList());
+    }
+
+    static double distance(double x1, double y1, double x2, double y2){
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+}
@@ -0,0 +1,156 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 雪花ID的位结构、毫秒内序列号溢出、时钟回拨和workerId租约过期
+ */
+class SnowflakeIdWorkerTest {
+    private static final long BEGIN_MILLIS = 1735689600000L;
+    private static final long WORKER_ID = 5L;
+
+    private final AtomicLong clock = new AtomicLong(BEGIN_MILLIS + 123_456_789L);
+    private final AtomicLong ticker = new AtomicLong();
+    private StringRedisTemplate stringRedisTemplate;
+    private SnowflakeIdWorker worker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp(){
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOps);
+        //workerId 0-4 已被占用
+        when(valueOps.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0).equals("id:worker:" + WORKER_ID));
+        worker = new SnowflakeIdWorker(stringRedisTemplate, clock::get, ticker::get);
+        worker.start();
+    }
+
+    @AfterEach
+    void tearDown(){
+        worker.stop();
+    }
+
+    @Test
+    void bitLayout(){
+        long id = worker.nextId();
+        assertTrue(id > 0);
+        //模式标识位
+        assertEquals(1L, id >>> 62);
+        assertEquals(clock.get() - BEGIN_MILLIS, (id >>> 22) & ((1L << 40) - 1));
+        assertEquals(WORKER_ID, (id >>> 12) & 1023);
+        assertEquals(0L, id & 4095);
+        long second = worker.nextId();
+        assertEquals(id + 1, second);
+        //下一毫秒序列号从0开始
+        clock.incrementAndGet();
+        long third = worker.nextId();
+        assertEquals(clock.get() - BEGIN_MILLIS, (third >>> 22) & ((1L << 40) - 1));
+        assertEquals(0L, third & 4095);
+    }
+
+    @Test
+    void sequenceOverflowCarriesIntoNextMillisecond(){
+        long timestamp = clock.get() - BEGIN_MILLIS;
+        long last = 0;
+        for(int i = 0; i < 4096; i++){
+            long id = worker.nextId();
+            assertTrue(id > last);
+            assertEquals(timestamp, (id >>> 22) & ((1L << 40) - 1));
+            last = id;
+        }
+        //时钟未前进，第4097个ID借用下一毫秒
+        long id = worker.nextId();
+        assertTrue(id > last);
+        assertEquals(timestamp + 1, (id >>> 22) & ((1L << 40) - 1));
+        assertEquals(0L, id & 4095);
+    }
+
+    @Test
+    void smallClockRollbackKeepsIdsIncreasing(){
+        long first = worker.nextId();
+        clock.addAndGet(-500);
+        long second = worker.nextId();
+        assertTrue(second > first);
+        //回拨期间沿用逻辑时钟
+        assertEquals((first >>> 22) & ((1L << 40) - 1), (second >>> 22) & ((1L << 40) - 1));
+        clock.addAndGet(501);
+        long third = worker.nextId();
+        assertTrue(third > second);
+        assertEquals(0L, third & 4095);
+    }
+
+    @Test
+    void largeClockRollbackIsRejected(){
+        worker.nextId();
+        clock.addAndGet(-1001);
+        assertThrows(RuntimeException.class, worker::nextId);
+        clock.addAndGet(1001);
+        worker.nextId();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void expiredLeaseStopsIdGeneration(){
+        worker.nextId();
+        //续期持续失败
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenThrow(new RuntimeException("redis unavailable"));
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(20));
+        renew();
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(20));
+        renew();
+        assertTrue(worker.isLeaseValid());
+        worker.nextId();
+        //距上次续期成功超过 60s-10s
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertFalse(worker.isLeaseValid());
+        assertThrows(RuntimeException.class, worker::nextId);
+        //redis恢复，续期成功后继续生成ID
+        doReturn(1L).when(stringRedisTemplate).execute(any(RedisScript.class), anyList(), any(Object[].class));
+        renew();
+        assertTrue(worker.isLeaseValid());
+        worker.nextId();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void successfulRenewExtendsLease(){
+        when(stringRedisTemplate.execute(any(RedisScript.class), eq(List.of("id:worker:" + WORKER_ID)), any(Object[].class)))
+                .thenReturn(1L);
+        for(int i = 0; i < 10; i++){
+            ticker.addAndGet(TimeUnit.SECONDS.toNanos(20));
+            renew();
+            assertTrue(worker.isLeaseValid());
+        }
+        worker.nextId();
+    }
+
+    private void renew(){
+        ReflectionTestUtils.invokeMethod(worker, "renew");
+    }
+}
@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.redisson.Redisson;
+import org.redisson.api.RStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.StreamMessageId;
+import org.redisson.api.stream.StreamAddArgs;
+import org.redisson.api.stream.StreamReadGroupArgs;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.config.Config;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 消费组只裁剪已确认的消息，以及超过最大投递次数的消息转入死信队列，需要一个可写的redis：
+ * mvn test -Dtest=StreamConsumerGroupTest -Dredis.host=127.0.0.1 -Dredis.port=6379
+ */
+@EnabledIfSystemProperty(named = "redis.host", matches = ".+")
+class StreamConsumerGroupTest {
+    private static final String STREAM_NAME = "test.stream.consumer";
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static RedissonClient redissonClient;
+
+    @BeforeAll
+    static void setUp(){
+        String host = System.getProperty("redis.host");
+        int port = Integer.getInteger("redis.port", 6379);
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        Config config = new Config();
+        config.useSingleServer().setAddress("redis://" + host + ":" + port);
+        redissonClient = Redisson.create(config);
+    }
+
+    @AfterEach
+    void clean(){
+        stringRedisTemplate.delete(List.of(STREAM_NAME, STREAM_NAME + ".dlq"));
+    }
+
+    @AfterAll
+    static void tearDown(){
+        redissonClient.shutdown();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void trimRemovesOnlyAcknowledgedEntries(){
+        StreamConsumerGroup group = newGroup(records -> {});
+        RStream<String, String> stream = stream();
+        List<StreamMessageId> ids = add(stream, 10);
+        //投递前5条，确认前3条
+        read(stream, 5);
+        stream.ack(StreamConsumerGroup.GROUP_NAME, ids.get(0), ids.get(1), ids.get(2));
+        group.trimAcknowledged();
+        assertEquals(7, stream.size());
+        assertEquals(ids.get(3), stream.range(StreamMessageId.MIN, StreamMessageId.MAX).keySet().iterator().next());
+
+        //全部投递的消息都确认后，只保留最后投递的消息和未投递的消息
+        stream.ack(StreamConsumerGroup.GROUP_NAME, ids.get(3), ids.get(4));
+        group.trimAcknowledged();
+        assertEquals(6, stream.size());
+        assertEquals(ids.get(4), stream.range(StreamMessageId.MIN, StreamMessageId.MAX).keySet().iterator().next());
+    }
+
+    @Test
+    void exhaustedDeliveriesMoveToDeadLetterQueue(){
+        List<Integer> attempts = new ArrayList<>();
+        StreamConsumerGroup group = newGroup(records -> {
+            attempts.add(records.size());
+            throw new IllegalStateException("handler failed");
+        });
+        RStream<String, String> stream = stream();
+        List<StreamMessageId> ids = add(stream, 1);
+        //第1次投递后处理失败，留在pendinglist中
+        read(stream, 1);
+        //第2次投递：认领后重试
+        group.recoverPending();
+        assertEquals(1, attempts.size());
+        assertEquals(1, stream.getPendingInfo(StreamConsumerGroup.GROUP_NAME).getTotal());
+        //第3次投递超过最大投递次数，转入死信队列并确认
+        group.recoverPending();
+        assertEquals(1, attempts.size());
+        assertEquals(0, stream.getPendingInfo(StreamConsumerGroup.GROUP_NAME).getTotal());
+        RStream<String, String> deadLetters = redissonClient.getStream(STREAM_NAME + ".dlq", StringCodec.INSTANCE);
+        Map<String, String> deadLetter = deadLetters.range(StreamMessageId.MIN, StreamMessageId.MAX).values().iterator().next();
+        assertEquals(ids.get(0).toString(), deadLetter.get("sourceId"));
+        assertEquals("3", deadLetter.get("deliveryCount"));
+        assertEquals("0", deadLetter.get("n"));
+    }
+
+    @Test
+    void startsWithZeroPendingIdle(){
+        StreamConsumerGroup group = new StreamConsumerGroup(stringRedisTemplate, redissonClient, STREAM_NAME, records -> {})
+                .consumers(1)
+                .pendingIdle(0);
+        group.start();
+        group.stop();
+    }
+
+    private StreamConsumerGroup newGroup(StreamConsumerGroup.BatchHandler handler){
+        StreamConsumerGroup group = new StreamConsumerGroup(stringRedisTemplate, redissonClient, STREAM_NAME, handler)
+                .pendingIdle(0)
+                .maxDeliveries(2);
+        ReflectionTestUtils.invokeMethod(group, "createGroup");
+        return group;
+    }
+
+    private static RStream<String, String> stream(){
+        return redissonClient.getStream(STREAM_NAME, StringCodec.INSTANCE);
+    }
+
+    private static List<StreamMessageId> add(RStream<String, String> stream, int count){
+        List<StreamMessageId> ids = new ArrayList<>();
+        for(int i = 0; i < count; i++){
+            ids.add(stream.add(StreamAddArgs.entry("n", String.valueOf(i))));
+        }
+        return ids;
+    }
+
+    //模拟消费者读取但未确认
+    private static void read(RStream<String, String> stream, int count){
+        stream.readGroup(StreamConsumerGroup.GROUP_NAME, "test-consumer", StreamReadGroupArgs.neverDelivered().count(count));
+    }
+}